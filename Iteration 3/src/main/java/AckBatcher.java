@@ -0,0 +1,113 @@
+package main.java;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * AckBatcher is a class that collects the timestamps of the snippets a Peer
+ * object receives and acknowledges them to their senders in batches.
+ * Every <code>DELAY_MILLIS</code> each peer that sent snippets is sent one acks
+ * message listing all of their timestamps, so a burst of snippets from one peer
+ * costs one ack instead of one ack each. A snippet received again is
+ * acknowledged again, since the first ack may have been lost.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class AckBatcher {
+    // how long a timestamp waits to be acknowledged with others
+    static final long DELAY_MILLIS = 100;
+    // the most bytes of one acks message
+    static final int MAX_ACKS = 1024;
+
+    private final Peer p;
+    // the timestamps waiting to be acknowledged to each peer, by packed address
+    private HashMap<Long, int[]> waiting = new HashMap<Long, int[]>();
+
+    /**
+     * Class constructor that specifies the Peer object whose snippets are
+     * acknowledged.
+     *
+     * @param p the Peer object whose snippets are acknowledged
+     */
+    AckBatcher(Peer p) {
+        this.p = p;
+    }
+
+    /**
+     * Sends the waiting acks every <code>DELAY_MILLIS</code> on a RoundScheduler
+     * until it is shut down.
+     *
+     * @param scheduler the RoundScheduler that runs the sends
+     */
+    public void start(RoundScheduler scheduler) {
+        scheduler.every(DELAY_MILLIS, 0, this::flush);
+    }
+
+    /**
+     * Queues the ack of a received snippet.
+     *
+     * @param source    the packed address of the peer that sent the snippet
+     * @param timestamp the timestamp of the snippet
+     */
+    public synchronized void add(long source, int timestamp) {
+        // the first element of each array is the number of timestamps that follow
+        int[] t = waiting.get(source);
+        if (t == null) {
+            t = new int[8];
+            waiting.put(source, t);
+        } else if (t[0] + 1 == t.length) {
+            t = Arrays.copyOf(t, t.length * 2);
+            waiting.put(source, t);
+        }
+        t[++t[0]] = timestamp;
+    }
+
+    /**
+     * Sends every waiting ack, one acks message per peer unless its timestamps
+     * do not fit in one.
+     */
+    private void flush() {
+        HashMap<Long, int[]> batch;
+        synchronized (this) {
+            if (waiting.isEmpty())
+                return;
+            batch = waiting;
+            waiting = new HashMap<Long, int[]>();
+        }
+        for (Map.Entry<Long, int[]> e : batch.entrySet()) {
+            PeerLocation to = PeerLocation.of(e.getKey());
+            int[] t = e.getValue();
+            StringBuilder sb = new StringBuilder("acks");
+            for (int a = 1; a <= t[0]; a++) {
+                String next = Integer.toString(t[a]);
+                if (sb.length() + next.length() + 1 > MAX_ACKS) {
+                    send(sb, to);
+                    sb.setLength(4);
+                }
+                if (sb.length() > 4)
+                    sb.append(' ');
+                sb.append(next);
+            }
+            send(sb, to);
+        }
+    }
+
+    /**
+     * Sends one acks message.
+     *
+     * @param sb the acks message
+     * @param to the PeerLocation of the peer to send it to
+     */
+    private void send(StringBuilder sb, PeerLocation to) {
+        byte[] buf = sb.toString().getBytes();
+        try {
+            p.send(buf, buf.length, to, SendScheduler.SNIPPET);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package main.java;
+
+/**
+ * AckLog is a class that records which snippets of a Peer object other peers
+ * have acknowledged, and when, for the report sent to the registry.
+ * An ack is kept in preallocated arrays as the timestamp of the snippet, the
+ * packed address of the peer that acknowledged it and the time in
+ * milliseconds. Recording an ack allocates nothing; the acks are only turned
+ * into text when the report is built. The log holds a fixed number of acks and
+ * overwrites the oldest once it is full.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class AckLog {
+    private final int[] timestamps;
+    private final long[] senders;
+    private final long[] times;
+    // the index of the next ack to write
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * AckVisitor is called for every ack of an AckLog.
+     */
+    public interface AckVisitor {
+        /**
+         * Visits one ack.
+         *
+         * @param timestamp the timestamp of the snippet that was acknowledged
+         * @param sender    the packed address of the peer that acknowledged it
+         * @param time      the time the ack was received in milliseconds
+         */
+        void visit(int timestamp, long sender, long time);
+    }
+
+    /**
+     * Class constructor that specifies the number of acks kept by this AckLog
+     * object.
+     *
+     * @param capacity the most acks kept before the oldest is overwritten
+     */
+    AckLog(int capacity) {
+        this.timestamps = new int[capacity];
+        this.senders = new long[capacity];
+        this.times = new long[capacity];
+    }
+
+    /**
+     * Records the acks of one message.
+     *
+     * @param acked  the timestamps of the snippets that were acknowledged
+     * @param count  the number of timestamps
+     * @param sender the packed address of the peer that acknowledged them
+     * @param time   the time the acks were received in milliseconds
+     */
+    public synchronized void add(int[] acked, int count, long sender, long time) {
+        for (int a = 0; a < count; a++) {
+            timestamps[head] = acked[a];
+            senders[head] = sender;
+            times[head] = time;
+            head = (head + 1) % timestamps.length;
+            if (size < timestamps.length)
+                size++;
+        }
+    }
+
+    /**
+     * Visits every ack kept, oldest first.
+     *
+     * @param visitor the AckVisitor to call for each ack
+     */
+    public synchronized void forEach(AckVisitor visitor) {
+        int first = (head - size + timestamps.length) % timestamps.length;
+        for (int a = 0; a < size; a++) {
+            int i = (first + a) % timestamps.length;
+            visitor.visit(timestamps[i], senders[i], times[i]);
+        }
+    }
+
+    /**
+     * Gets the number of acks kept.
+     *
+     * @return the number of acks
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+}
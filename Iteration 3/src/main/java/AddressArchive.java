@@ -0,0 +1,108 @@
+package main.java;
+
+import java.util.Arrays;
+
+/**
+ * AddressArchive is a class that remembers packed peer addresses that no longer
+ * need to be looked up, only listed, such as the peers evicted from a full
+ * PeerTable.
+ * Addresses are appended to one array of longs, so a peer costs eight bytes.
+ * The array grows up to a most number of addresses and is then used as a ring,
+ * so that once it is full each address added overwrites the oldest one. An
+ * address added more than once is only listed once.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class AddressArchive {
+    // the length of the array before it first grows
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int capacity;
+    private long[] addresses;
+    // the index of the next address to write
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * AddressVisitor is called for every address of an AddressArchive.
+     */
+    public interface AddressVisitor {
+        /**
+         * Visits one address.
+         *
+         * @param address the packed address
+         */
+        void visit(long address);
+    }
+
+    /**
+     * Class constructor that specifies the most number of addresses kept by
+     * this AddressArchive object.
+     *
+     * @param capacity the most addresses kept before the oldest is overwritten
+     */
+    AddressArchive(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.addresses = new long[Math.min(INITIAL_CAPACITY, capacity)];
+    }
+
+    /**
+     * Adds an address to this AddressArchive object, overwriting the oldest
+     * address if it is full.
+     *
+     * @param address the packed address
+     */
+    public synchronized void add(long address) {
+        if (size == addresses.length && addresses.length < capacity) {
+            // the ring has not wrapped yet, so the addresses are in order from the start
+            addresses = Arrays.copyOf(addresses, Math.min(addresses.length * 2, capacity));
+            head = size;
+        }
+        addresses[head] = address;
+        head = (head + 1) % addresses.length;
+        if (size < addresses.length)
+            size++;
+    }
+
+    /**
+     * Calls an AddressVisitor once for every distinct address in this
+     * AddressArchive object, in ascending order.
+     *
+     * @param v the AddressVisitor to call
+     */
+    public void forEach(AddressVisitor v) {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(addresses, size);
+        }
+        Arrays.sort(sorted);
+        for (int a = 0; a < sorted.length; a++) {
+            if (a == 0 || sorted[a - 1] != sorted[a])
+                v.visit(sorted[a]);
+        }
+    }
+
+    /**
+     * Gets the number of addresses in this AddressArchive object, counting an
+     * address added more than once more than once.
+     *
+     * @return the number of addresses
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets the number of bytes of heap used by the array of this AddressArchive
+     * object.
+     *
+     * @return the number of bytes used
+     */
+    public synchronized long getMemoryBytes() {
+        return (long) addresses.length * Long.BYTES;
+    }
+}
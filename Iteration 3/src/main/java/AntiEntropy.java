@@ -0,0 +1,443 @@
+package main.java;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AntiEntropy is a class that repairs the snippets a Peer object missed because
+ * their messages were lost, by periodically comparing its snippet history with
+ * that of another peer and pulling only the snippets it does not have.
+ * Every snippet is summarised by its source and timestamp. For each source the
+ * history keeps the number of snippets and the sum of a hash of their
+ * timestamps, and the same two numbers over all sources; both are updated as
+ * snippets are added, so a digest is never computed from the whole history.
+ * Every round the Peer object sends only its two totals to a random live peer,
+ * so peers whose histories match exchange one small message however long their
+ * histories are. A peer whose totals differ answers with the count and hash of
+ * each of its sources. For each source that differs the Peer object lists the
+ * timestamps it has, most recent first, and the other peer sends back the
+ * snippets of that source that are not listed as fwrd messages that are not
+ * passed on. Timestamps are Lamport clock values shared by all sources, so the
+ * snippets of one source are not numbered consecutively and the missing ones
+ * cannot be found from the largest timestamp alone.
+ * The timestamps of each source are kept in a sorted array of ints. If the Peer
+ * object keeps its snippets in a SnippetLog, the history only keeps their
+ * timestamps, the snippets sent back are read from the Peer object and a
+ * snippet leaves the history when its segment of the log is deleted. Either
+ * way the history holds at most <code>MAX_HISTORY</code> snippets and forgets
+ * the one added longest ago to make room for a new one.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class AntiEntropy {
+    // the most snippets sent back for one want message
+    static final int MAX_REPAIR = 64;
+    // the most snippets in the history, after which the one added longest ago is forgotten
+    static final int MAX_HISTORY = Integer.getInteger("peer.history", 65536);
+
+    private final Peer p;
+    private final long self;
+    // the snippets of each source by timestamp, by the packed address of the source
+    private final HashMap<Long, Source> sources = new HashMap<Long, Source>();
+    private int count = 0;
+    private int hash = 0;
+    // a slot for each snippet in the history, linked in the order they were added so the oldest can be forgotten
+    private final long[] slotSources = new long[MAX_HISTORY];
+    private final int[] slotTimestamps = new int[MAX_HISTORY];
+    private final int[] older = new int[MAX_HISTORY];
+    private final int[] newer = new int[MAX_HISTORY];
+    // the slots of the oldest and newest snippets, or -1 if the history is empty
+    private int oldest = -1;
+    private int newest = -1;
+    // the first free slot, whose newer slot is the next free one
+    private int free = 0;
+
+    private final LongAdder rounds = new LongAdder();
+    private final LongAdder repaired = new LongAdder();
+
+    /**
+     * Source is the snippets of one source and their digest.
+     */
+    private static class Source {
+        // the timestamps of the snippets, in ascending order
+        private int[] timestamps = new int[8];
+        // the Snippet of each timestamp, or null if they are read from the Peer object
+        private Snippet[] snippets;
+        // the slot of each timestamp in the order snippets were added
+        private int[] slots = new int[8];
+        private int size = 0;
+        private int hash = 0;
+
+        Source(boolean keepSnippets) {
+            if (keepSnippets)
+                snippets = new Snippet[timestamps.length];
+        }
+
+        /**
+         * Finds a timestamp.
+         *
+         * @param timestamp the timestamp
+         * @return its index, or <code>-(insertion point) - 1</code> if it is not
+         *         here
+         */
+        int indexOf(int timestamp) {
+            return Arrays.binarySearch(timestamps, 0, size, timestamp);
+        }
+
+        /**
+         * Inserts a snippet at an index, keeping the timestamps in order.
+         *
+         * @param i    the index
+         * @param s    the Snippet
+         * @param slot the slot of the snippet in the order snippets were added
+         */
+        void insert(int i, Snippet s, int slot) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                slots = Arrays.copyOf(slots, size * 2);
+                if (snippets != null)
+                    snippets = Arrays.copyOf(snippets, size * 2);
+            }
+            System.arraycopy(timestamps, i, timestamps, i + 1, size - i);
+            timestamps[i] = s.getTimestamp();
+            System.arraycopy(slots, i, slots, i + 1, size - i);
+            slots[i] = slot;
+            if (snippets != null) {
+                System.arraycopy(snippets, i, snippets, i + 1, size - i);
+                snippets[i] = s;
+            }
+            size++;
+        }
+
+        /**
+         * Removes the snippet at an index.
+         *
+         * @param i the index
+         */
+        void removeAt(int i) {
+            System.arraycopy(timestamps, i + 1, timestamps, i, size - i - 1);
+            System.arraycopy(slots, i + 1, slots, i, size - i - 1);
+            if (snippets != null) {
+                System.arraycopy(snippets, i + 1, snippets, i, size - i - 1);
+                snippets[size - 1] = null;
+            }
+            size--;
+        }
+    }
+
+    /**
+     * Class constructor that specifies the Peer object whose snippets are
+     * repaired.
+     *
+     * @param p the Peer object whose snippets are repaired
+     */
+    AntiEntropy(Peer p) {
+        this.p = p;
+        this.self = p.getLocation().getAddress();
+        for (int i = 0; i < MAX_HISTORY; i++) {
+            newer[i] = i + 1 < MAX_HISTORY ? i + 1 : -1;
+        }
+    }
+
+    /**
+     * Runs a round every <code>periodMillis</code> on a RoundScheduler until it
+     * is shut down.
+     *
+     * @param scheduler    the RoundScheduler that runs the rounds
+     * @param periodMillis the length of a round in milliseconds
+     */
+    public void start(RoundScheduler scheduler, long periodMillis) {
+        scheduler.every(periodMillis, Peer.ROUND_JITTER, this::round);
+    }
+
+    /**
+     * Adds a snippet to the history. A snippet that is already in the history is
+     * ignored.
+     *
+     * @param s the Snippet to add
+     */
+    public synchronized void add(Snippet s) {
+        long source = s.getSourcePeer().getAddress();
+        Source history = sources.computeIfAbsent(source, k -> new Source(p.getSnippetLog() == null));
+        int i = history.indexOf(s.getTimestamp());
+        if (i >= 0)
+            return;
+        if (count == MAX_HISTORY) {
+            remove(slotSources[oldest], slotTimestamps[oldest]);
+            // the source may have been emptied and dropped
+            history = sources.computeIfAbsent(source, k -> new Source(p.getSnippetLog() == null));
+            i = history.indexOf(s.getTimestamp());
+        }
+        int slot = free;
+        free = newer[slot];
+        slotSources[slot] = source;
+        slotTimestamps[slot] = s.getTimestamp();
+        older[slot] = newest;
+        newer[slot] = -1;
+        if (newest >= 0) {
+            newer[newest] = slot;
+        } else {
+            oldest = slot;
+        }
+        newest = slot;
+        history.insert(-i - 1, s, slot);
+        int h = hash(source, s.getTimestamp());
+        history.hash += h;
+        hash += h;
+        count++;
+    }
+
+    /**
+     * Removes a snippet from the history, for example when the segment of the
+     * SnippetLog that kept it is deleted, and frees its slot. A snippet that is
+     * not in the history is ignored.
+     *
+     * @param source    the packed address of the source of the snippet
+     * @param timestamp the timestamp of the snippet
+     */
+    public synchronized void remove(long source, int timestamp) {
+        Source history = sources.get(source);
+        if (history == null)
+            return;
+        int i = history.indexOf(timestamp);
+        if (i < 0)
+            return;
+        int slot = history.slots[i];
+        history.removeAt(i);
+        if (older[slot] >= 0) {
+            newer[older[slot]] = newer[slot];
+        } else {
+            oldest = newer[slot];
+        }
+        if (newer[slot] >= 0) {
+            older[newer[slot]] = older[slot];
+        } else {
+            newest = older[slot];
+        }
+        newer[slot] = free;
+        free = slot;
+        int h = hash(source, timestamp);
+        history.hash -= h;
+        hash -= h;
+        count--;
+        if (history.size == 0)
+            sources.remove(source);
+    }
+
+    /**
+     * Runs one round: sends the totals of the history to a random live peer, or
+     * to a random neighbour if the Peer object is in an overlay.
+     */
+    private void round() {
+        long[] target;
+        int n;
+        PartialView overlay = p.getOverlay();
+        if (overlay != null) {
+            target = new long[PartialView.ACTIVE_SIZE];
+            n = overlay.getActive(target);
+        } else {
+            // one peer more in case the Peer object itself is picked
+            target = new long[2];
+            n = p.samplePeers(target);
+        }
+        if (n == 0)
+            return;
+        // the sample keeps the first peers of the table in place, so pick one at random
+        int first = ThreadLocalRandom.current().nextInt(n);
+        long to = target[first] != self ? target[first] : target[(first + 1) % n];
+        if (to == self)
+            return;
+        String digest;
+        synchronized (this) {
+            digest = "dgst" + count + " " + (hash & Integer.MAX_VALUE);
+        }
+        send(digest, to);
+        rounds.increment();
+    }
+
+    /**
+     * Handles a dgst message. Totals alone are answered with the digest of each
+     * source if they differ from this history's; the digests of the sources are
+     * answered with a want message for each source that differs.
+     *
+     * @param view the MessageView pointing at the dgst message
+     * @param from the packed address of the peer that sent it
+     */
+    public void onDigest(MessageView view, long from) {
+        if (view.getEntryCount() == 0) {
+            List<String> reply = new ArrayList<String>();
+            synchronized (this) {
+                if (view.getDigestCount() == count && view.getDigestHash() == (hash & Integer.MAX_VALUE))
+                    return;
+                String header = "dgst" + count + " " + (hash & Integer.MAX_VALUE);
+                StringBuilder sb = new StringBuilder(header);
+                for (Map.Entry<Long, Source> e : sources.entrySet()) {
+                    PeerLocation source = PeerLocation.of(e.getKey());
+                    String next = e.getValue().size + ":" + (e.getValue().hash & Integer.MAX_VALUE) + "@"
+                            + source.getIP() + ":" + source.getPort();
+                    if (sb.length() + next.length() + 1 > ReassemblyCache.MAX_DATAGRAM) {
+                        reply.add(sb.toString());
+                        sb.setLength(header.length());
+                    }
+                    sb.append(' ').append(next);
+                }
+                if (sb.length() > header.length())
+                    reply.add(sb.toString());
+            }
+            for (String message : reply) {
+                send(message, from);
+            }
+            return;
+        }
+
+        long[] entries = view.getEntries();
+        int[] counts = view.getDigestCounts();
+        int[] hashes = view.getDigestHashes();
+        List<String> wants = new ArrayList<String>();
+        synchronized (this) {
+            for (int a = 0; a < view.getEntryCount(); a++) {
+                Source history = sources.get(entries[a]);
+                if (history == null) {
+                    wants.add(want(entries[a], null));
+                } else if (counts[a] != history.size
+                        || hashes[a] != (history.hash & Integer.MAX_VALUE)) {
+                    wants.add(want(entries[a], history));
+                }
+            }
+        }
+        for (String message : wants) {
+            send(message, from);
+        }
+    }
+
+    /**
+     * Builds a want message that lists the timestamps of a source in the history,
+     * most recent first, for as many as fit in one datagram. The floor is the
+     * most recent timestamp that did not fit, below which nothing is asked for.
+     *
+     * @param source  the packed address of the source
+     * @param history the snippets of the source, or <code>null</code> if there
+     *                are none
+     * @return the want message
+     */
+    private String want(long source, Source history) {
+        PeerLocation s = PeerLocation.of(source);
+        StringBuilder sb = new StringBuilder();
+        int floor = 0;
+        if (history != null) {
+            // leaves room for the type, the floor and the address
+            int room = ReassemblyCache.MAX_DATAGRAM - 4 - 11 - 22;
+            for (int i = history.size - 1; i >= 0; i--) {
+                String next = Integer.toString(history.timestamps[i]);
+                if (sb.length() + next.length() + 1 > room) {
+                    floor = history.timestamps[i];
+                    break;
+                }
+                sb.append(' ').append(next);
+            }
+        }
+        return "want" + floor + " " + s.getIP() + ":" + s.getPort() + sb;
+    }
+
+    /**
+     * Handles a want message by sending back up to <code>MAX_REPAIR</code>
+     * snippets of the source above the floor that are not listed, each as a fwrd
+     * message that is not passed on. Snippets too large for one datagram, or no
+     * longer kept by the Peer object, are not sent.
+     *
+     * @param view the MessageView pointing at the want message
+     * @param from the packed address of the peer that sent it
+     */
+    public void onWant(MessageView view, long from) {
+        int[] missing = new int[MAX_REPAIR];
+        Snippet[] held = new Snippet[MAX_REPAIR];
+        int n = 0;
+        synchronized (this) {
+            Source history = sources.get(view.getAddress());
+            if (history == null)
+                return;
+            int[] listed = view.getAcked();
+            int listedCount = view.getAckedCount();
+            Arrays.sort(listed, 0, listedCount);
+            int i = history.indexOf(view.getTimestamp());
+            // the floor itself is not asked for
+            i = i >= 0 ? i + 1 : -i - 1;
+            for (; i < history.size && n < MAX_REPAIR; i++) {
+                if (Arrays.binarySearch(listed, 0, listedCount, history.timestamps[i]) >= 0)
+                    continue;
+                missing[n] = history.timestamps[i];
+                held[n] = history.snippets != null ? history.snippets[i] : null;
+                n++;
+            }
+        }
+        // the SnippetLog is read outside the lock, since it removes snippets from the history while locked
+        PeerLocation source = PeerLocation.of(view.getAddress());
+        List<String> repairs = new ArrayList<String>();
+        for (int a = 0; a < n; a++) {
+            Snippet s = held[a] != null ? held[a] : p.findSnippet(missing[a], view.getAddress());
+            if (s == null)
+                continue;
+            repairs.add("fwrd" + s.getTimestamp() + " 0 " + source.getIP() + ":" + source.getPort() + " "
+                    + s.getContent());
+        }
+        for (String message : repairs) {
+            if (message.getBytes().length <= ReassemblyCache.MAX_DATAGRAM) {
+                send(message, from);
+                repaired.increment();
+            }
+        }
+    }
+
+    /**
+     * Sends one message on the snippet lane.
+     *
+     * @param message the message
+     * @param to      the packed address of the peer to send it to
+     */
+    private void send(String message, long to) {
+        byte[] buf = message.getBytes();
+        try {
+            p.send(buf, buf.length, PeerLocation.of(to), SendScheduler.SNIPPET);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hashes the source and timestamp of a snippet into 32 bits.
+     *
+     * @param source    the packed address of the source
+     * @param timestamp the timestamp
+     * @return the hash
+     */
+    private static int hash(long source, int timestamp) {
+        long h = (source * 31 + timestamp) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Gets the number of digests this AntiEntropy object sent.
+     *
+     * @return the number of rounds
+     */
+    public long getRounds() {
+        return rounds.sum();
+    }
+
+    /**
+     * Gets the number of snippets sent to other peers that were missing them.
+     *
+     * @return the number of repaired snippets
+     */
+    public long getRepaired() {
+        return repaired.sum();
+    }
+}
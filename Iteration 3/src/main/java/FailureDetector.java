@@ -0,0 +1,417 @@
+package main.java;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * FailureDetector is a class that decides which peers of a Peer object are
+ * alive with a SWIM-style protocol over the Peer object's UDP socket.
+ * Its protocol periods run on the RoundScheduler of the Peer object.
+ * Every protocol period one random peer is sent a ping. If no pong comes back
+ * within <code>PROBE_TIMEOUT_MILLIS</code>, <code>INDIRECT_PROBES</code> other
+ * random peers are sent a preq asking them to ping it instead and pass the pong
+ * back. A peer that has not answered by the end of the period is suspected, and
+ * a suspected peer that does not refute the suspicion with a higher incarnation
+ * in time is declared dead.
+ * Changes in membership are not sent on their own: they are piggybacked on the
+ * ping, pong and preq messages, each a limited number of times. Peers are
+ * picked by looking at a bounded number of slots of the peer table, so the
+ * traffic of a peer per period, and its work apart from the suspects it checks,
+ * is the same however many peers there are.
+ * The incarnation of a peer is forgotten once it is declared dead, and the
+ * incarnations of peers evicted from the peer table are dropped in the next
+ * period.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class FailureDetector {
+    // the length of a protocol period, in which one random peer is probed
+    static final long PERIOD_MILLIS = 1000;
+    // how long to wait for a pong before asking other peers to probe
+    static final long PROBE_TIMEOUT_MILLIS = 300;
+    // the number of peers asked to probe a peer that did not answer
+    static final int INDIRECT_PROBES = 3;
+    // the most membership updates piggybacked on one message
+    static final int MAX_PIGGYBACK = 8;
+    // suspicion lasts this many periods per doubling of the number of peers
+    static final int SUSPICION_MULTIPLIER = 2;
+    // an update is piggybacked this many times per doubling of the number of peers
+    static final int RETRANSMIT_MULTIPLIER = 3;
+
+    private final Peer p;
+    private int incarnation = 0;
+    private int sequence = 0;
+
+    // the probe of the current period
+    private long target = 0;
+    private int targetSequence;
+    private boolean acked;
+    // set when peers were evicted, so that their incarnations are dropped next period
+    private volatile boolean evicted = false;
+
+    // the latest incarnation heard for each peer
+    private final HashMap<Long, Integer> incarnations = new HashMap<Long, Integer>();
+    // the time each suspected peer was suspected
+    private final HashMap<Long, Long> suspects = new HashMap<Long, Long>();
+    // updates waiting to be piggybacked, least recently sent first
+    private final LinkedHashMap<Long, Update> updates = new LinkedHashMap<Long, Update>();
+    // pings sent on behalf of other peers, by sequence number
+    private final HashMap<Integer, Relay> relays = new HashMap<Integer, Relay>();
+
+    /**
+     * Update is a change in membership waiting to be piggybacked.
+     */
+    private static class Update {
+        private final byte state;
+        private final int incarnation;
+        private int sent = 0;
+
+        Update(byte state, int incarnation) {
+            this.state = state;
+            this.incarnation = incarnation;
+        }
+    }
+
+    /**
+     * Relay is a ping sent for a peer that asked for it with a preq.
+     */
+    private static class Relay {
+        private final PeerLocation requester;
+        private final int sequence;
+        private final long created;
+
+        Relay(PeerLocation requester, int sequence, long created) {
+            this.requester = requester;
+            this.sequence = sequence;
+            this.created = created;
+        }
+    }
+
+    /**
+     * Class constructor that specifies the Peer object whose peers are probed.
+     *
+     * @param p the Peer object whose peers are probed
+     */
+    FailureDetector(Peer p) {
+        this.p = p;
+    }
+
+    /**
+     * Runs one protocol period after another on a RoundScheduler until it is
+     * shut down. Each period ends the probe of the last one, then starts a new
+     * probe and schedules the indirect probe for when it times out.
+     *
+     * @param scheduler the RoundScheduler that runs the periods
+     */
+    public void start(RoundScheduler scheduler) {
+        scheduler.every(PERIOD_MILLIS, Peer.ROUND_JITTER, new Runnable() {
+            long t = 0;
+
+            @Override
+            public void run() {
+                endProbe(t);
+                try {
+                    t = startProbe(System.currentTimeMillis());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    t = 0;
+                }
+                if (t != 0) {
+                    long probed = t;
+                    scheduler.after(PROBE_TIMEOUT_MILLIS, () -> {
+                        try {
+                            probeIndirectly(probed);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Declares dead the suspects whose time is up, then pings a random peer.
+     *
+     * @param now the current time in milliseconds
+     * @return the packed address of the peer pinged, or <code>0</code> if there
+     *         is no other peer
+     * @throws IOException if the ping could not be sent
+     */
+    private synchronized long startProbe(long now) throws IOException {
+        long suspicion = SUSPICION_MULTIPLIER * PERIOD_MILLIS * log2(p.getPeerCount());
+        Iterator<Map.Entry<Long, Long>> it = suspects.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Long> suspect = it.next();
+            if (now - suspect.getValue() >= suspicion) {
+                it.remove();
+                long address = suspect.getKey();
+                p.markDead(address);
+                Integer inc = incarnations.remove(address);
+                queue(address, MessageView.DEAD, inc == null ? 0 : inc);
+            }
+        }
+        relays.values().removeIf(r -> now - r.created > PERIOD_MILLIS);
+        if (evicted) {
+            // evictions come a fraction of the table at a time, so this is rare
+            evicted = false;
+            incarnations.keySet().removeIf(address -> !p.isKnown(address));
+            suspects.keySet().removeIf(address -> !p.isKnown(address));
+        }
+
+        long self = p.getLocation().getAddress();
+        target = 0;
+        // try a few times so that picking this Peer object's own address is not a lost period
+        for (int a = 0; a < 3 && target == 0; a++) {
+            long picked = p.pickPeer();
+            if (picked != self)
+                target = picked;
+        }
+        if (target == 0)
+            return 0;
+        targetSequence = ++sequence;
+        acked = false;
+        send("ping" + targetSequence, PeerLocation.of(target));
+        return target;
+    }
+
+    /**
+     * Asks random peers to ping a peer that has not answered this period's ping.
+     *
+     * @param t the packed address of the peer being probed
+     * @throws IOException if a preq could not be sent
+     */
+    private synchronized void probeIndirectly(long t) throws IOException {
+        if (acked || t != target)
+            return;
+        long self = p.getLocation().getAddress();
+        long[] helpers = new long[INDIRECT_PROBES];
+        PeerLocation probed = PeerLocation.of(t);
+        String preq = "preq" + targetSequence + " " + probed.getIP() + ":" + probed.getPort();
+        int asked = 0;
+        // a few more picks than helpers, since a pick can be this Peer object, the probed peer or a repeat
+        for (int a = 0; a < 2 * INDIRECT_PROBES && asked < INDIRECT_PROBES; a++) {
+            long helper = p.pickPeer();
+            if (helper == 0 || helper == self || helper == t || contains(helpers, asked, helper))
+                continue;
+            helpers[asked++] = helper;
+            send(preq, PeerLocation.of(helper));
+        }
+    }
+
+    /**
+     * Suspects the peer probed this period if neither it nor any peer asked to
+     * probe it answered.
+     *
+     * @param t the packed address of the peer that was probed
+     */
+    private synchronized void endProbe(long t) {
+        if (t == 0 || acked || t != target)
+            return;
+        if (!suspects.containsKey(t) && p.isKnown(t)) {
+            suspects.put(t, System.currentTimeMillis());
+            queue(t, MessageView.SUSPECT, incarnations.getOrDefault(t, 0));
+        }
+    }
+
+    /**
+     * Handles a ping by answering it with a pong.
+     *
+     * @param view the MessageView pointing at the ping
+     * @param from the PeerLocation of the peer that sent the ping
+     */
+    public synchronized void onPing(MessageView view, PeerLocation from) {
+        apply(view);
+        try {
+            send("pong" + view.getSequence(), from);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Handles a pong, which either answers this period's probe or a ping sent
+     * for another peer, in which case it is passed back to that peer.
+     *
+     * @param view the MessageView pointing at the pong
+     * @param from the PeerLocation of the peer that sent the pong
+     */
+    public synchronized void onPong(MessageView view, PeerLocation from) {
+        apply(view);
+        if (view.getSequence() == targetSequence) {
+            acked = true;
+            suspects.remove(target);
+        }
+        Relay relay = relays.remove(view.getSequence());
+        if (relay != null) {
+            try {
+                send("pong" + relay.sequence, relay.requester);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Handles a preq by pinging the peer it names on behalf of the sender.
+     *
+     * @param view the MessageView pointing at the preq
+     * @param from the PeerLocation of the peer that sent the preq
+     */
+    public synchronized void onPingRequest(MessageView view, PeerLocation from) {
+        apply(view);
+        int s = ++sequence;
+        relays.put(s, new Relay(from, view.getSequence(), System.currentTimeMillis()));
+        try {
+            send("ping" + s, PeerLocation.of(view.getAddress()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Applies the membership updates piggybacked on a message. Updates about this
+     * Peer object are refuted by raising its incarnation.
+     *
+     * @param view the MessageView pointing at the message
+     */
+    private void apply(MessageView view) {
+        long self = p.getLocation().getAddress();
+        for (int i = 0; i < view.getEntryCount(); i++) {
+            long address = view.getEntries()[i];
+            byte state = view.getStates()[i];
+            int inc = view.getIncarnations()[i];
+            if (address == self) {
+                if (state != MessageView.ALIVE && inc >= incarnation) {
+                    incarnation = inc + 1;
+                    queue(self, MessageView.ALIVE, incarnation);
+                }
+                continue;
+            }
+
+            int known = incarnations.getOrDefault(address, -1);
+            switch (state) {
+                case MessageView.ALIVE:
+                    if (inc > known) {
+                        incarnations.put(address, inc);
+                        suspects.remove(address);
+                        p.markAlive(address);
+                        queue(address, state, inc);
+                    }
+                    break;
+                case MessageView.SUSPECT:
+                    if (p.isKnown(address) && (inc > known || (inc == known && !suspects.containsKey(address)))) {
+                        incarnations.put(address, inc);
+                        suspects.put(address, System.currentTimeMillis());
+                        queue(address, state, inc);
+                    }
+                    break;
+                case MessageView.DEAD:
+                    if (p.isKnown(address) && inc >= known) {
+                        incarnations.remove(address);
+                        suspects.remove(address);
+                        p.markDead(address);
+                        queue(address, state, inc);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Queues a membership update to be piggybacked, replacing any older update
+     * about the same peer.
+     *
+     * @param address     the packed address of the peer
+     * @param state       the state of the peer
+     * @param incarnation the incarnation of the peer
+     */
+    private void queue(long address, byte state, int incarnation) {
+        updates.remove(address);
+        updates.put(address, new Update(state, incarnation));
+    }
+
+    /**
+     * Sends a message with as many queued updates piggybacked as fit. The
+     * updates sent go to the back of the queue, and an update is dropped once
+     * it has been sent enough times to have reached every peer with high
+     * probability.
+     *
+     * @param head the message without updates
+     * @param to   the PeerLocation of the peer to send the message to
+     * @throws IOException if the message could not be sent
+     */
+    private void send(String head, PeerLocation to) throws IOException {
+        StringBuilder sb = new StringBuilder(head);
+        int limit = RETRANSMIT_MULTIPLIER * log2(p.getPeerCount());
+        Iterator<Map.Entry<Long, Update>> it = updates.entrySet().iterator();
+        LinkedHashMap<Long, Update> sent = new LinkedHashMap<Long, Update>();
+        // updates on their last send are appended but not put back, so they are counted here
+        int appended = 0;
+        while (it.hasNext() && appended < MAX_PIGGYBACK) {
+            Map.Entry<Long, Update> e = it.next();
+            appended++;
+            Update u = e.getValue();
+            PeerLocation about = PeerLocation.of(e.getKey());
+            sb.append(' ').append((char) u.state).append(u.incarnation).append('@');
+            sb.append(about.getIP()).append(':').append(about.getPort());
+            it.remove();
+            if (++u.sent < limit)
+                sent.put(e.getKey(), u);
+        }
+        updates.putAll(sent);
+        byte[] buf = sb.toString().getBytes();
+        p.send(buf, buf.length, to, SendScheduler.MEMBERSHIP);
+    }
+
+    /**
+     * Records that peers were evicted from the peer table, so that their
+     * incarnations are dropped at the start of the next period. This method
+     * does not lock, since it is called while the peer table is locked.
+     */
+    void forget() {
+        this.evicted = true;
+    }
+
+    /**
+     * Gets the number of peers currently suspected.
+     *
+     * @return the number of suspected peers
+     */
+    public synchronized int getSuspectCount() {
+        return this.suspects.size();
+    }
+
+    /**
+     * Checks if an address is among the first entries of an array.
+     *
+     * @param addresses the array of packed addresses
+     * @param count     the number of entries to look at
+     * @param address   the packed address to look for
+     * @return <code>true</code> if the address is among the entries
+     */
+    private static boolean contains(long[] addresses, int count, long address) {
+        for (int a = 0; a < count; a++) {
+            if (addresses[a] == address)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of bits needed to write the number of peers, which
+     * scales the suspicion time and the number of times an update is sent with
+     * the logarithm of the number of peers.
+     *
+     * @param n the number of peers
+     * @return the number of bits in <code>n</code>, and at least one
+     */
+    private static int log2(int n) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(n));
+    }
+}
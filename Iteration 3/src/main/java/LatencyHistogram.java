@@ -0,0 +1,77 @@
+package main.java;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram is a class that counts latencies in buckets whose bounds
+ * are powers of two nanoseconds.
+ * Each bucket is a striped LongAdder, so many threads can record latencies
+ * without contending on one counter. Percentiles are reported as the upper
+ * bound of the bucket they fall in, which is within a factor of two.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class LatencyHistogram {
+    private final LongAdder[] buckets = new LongAdder[64];
+
+    /**
+     * Class constructor that creates an empty LatencyHistogram.
+     */
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        buckets[63 - Long.numberOfLeadingZeros(Math.max(1, nanos))].increment();
+    }
+
+    /**
+     * Gets the number of latencies recorded.
+     *
+     * @return the number of latencies
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder b : buckets) {
+            count += b.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Gets an upper bound on a percentile of the recorded latencies.
+     *
+     * @param percentile the percentile, between <code>0</code> and
+     *                   <code>100</code>
+     * @return the upper bound of the bucket holding the percentile in
+     *         nanoseconds, or <code>0</code> if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return i >= 62 ? Long.MAX_VALUE : 1L << (i + 1);
+        }
+        return Long.MAX_VALUE;
+    }
+}
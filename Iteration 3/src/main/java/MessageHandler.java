@@ -3,6 +3,8 @@ package main.java;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
 
 /**
  * MessageHandler is a class that handles all UDP messages for a Peer object.
@@ -15,11 +17,24 @@ import java.net.InetAddress;
  * @since 1.0
  */
 public class MessageHandler implements Runnable {
+    // how long to keep acknowledging stop messages after the last message received
+    static final int STOP_LINGER_MILLIS = 25000;
+    // how long a blocking receive waits before checking if the handler is done
+    private static final int RECEIVE_TIMEOUT_MILLIS = 1000;
+
     private DatagramSocket udpSocket;
     private Peer p;
-    private byte[] buf;
-    private DatagramPacket packet;
-    private String msg;
+    private final byte[] buf = new byte[1024];
+    private final DatagramPacket packet = new DatagramPacket(buf, buf.length);
+    private byte[] ack;
+    private MessagePipeline pipeline;
+    private final MessageView view = new MessageView();
+
+    // peer and snippet messages collected between beginBatch and endBatch
+    private boolean batching = false;
+    private final ArrayList<PeerLocation> batchPeers = new ArrayList<PeerLocation>();
+    private final ArrayList<PeerLocation> batchSenders = new ArrayList<PeerLocation>();
+    private final ArrayList<Snippet> batchSnippets = new ArrayList<Snippet>();
 
     /**
      * Class constructor that specifies the UDP socket to receive messages from and
@@ -35,85 +50,342 @@ public class MessageHandler implements Runnable {
         this.p = p;
     }
 
+    /**
+     * Class constructor for a MessageHandler that does not own a UDP socket and is
+     * given its messages through {@link #handle}.
+     * 
+     * @param p the Peer object that this MessageHandler is handling messages for
+     */
+    MessageHandler(Peer p) {
+        this(null, p);
+    }
+
+    /**
+     * Sets a MessagePipeline that the messages passed to {@link #dispatch} are
+     * handed to instead of being handled on the calling thread.
+     * 
+     * @param pipeline the MessagePipeline that handles received messages
+     */
+    void setPipeline(MessagePipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
     /**
      * Listens for messages received on this MessageHanlder object's UDP socket and
      * handles them accordingly.
+     * The same buffer and DatagramPacket are reused for every message received.
      */
     @Override
     public void run() {
+        try {
+            this.udpSocket.setSoTimeout(RECEIVE_TIMEOUT_MILLIS);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
 
-        while (!p.getStop()) {
-            buf = new byte[1024];
-            msg = "";
-            packet = new DatagramPacket(buf, buf.length);
-
+        while (!isDone()) {
             try {
+                packet.setLength(buf.length);
                 this.udpSocket.receive(packet);
-                msg = new String(packet.getData(), 0, packet.getLength());
+            } catch (SocketTimeoutException e) {
+                continue;
             } catch (Exception e) {
                 e.printStackTrace();
+                continue;
             }
 
-            String msgType = processMessage(msg)[0];
-            String msgContent = processMessage(msg)[1];
-            switch (msgType) {
-                case "peer":
-                    String peerIP = msgContent.split(":")[0];
-                    int peerPort = Integer.parseInt(msgContent.split(":")[1]);
-                    p.addPeer(new PeerLocation(peerIP, peerPort), packet);
-                    break;
-                case "snip":
-                    try {
-                        Snippet s = processSnippet(msgContent, packet);
-                        p.addSnippet(s);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        break;
-                    }
-                    break;
-                case "stop":
-                    System.out.println("Received stop");
-                    try {
-                        this.udpSocket.setSoTimeout(25000);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        break;
-                    }
-                    InetAddress senderIP = packet.getAddress();
-                    int senderPort = packet.getPort();
-                    String ack = "ack" + p.TEAMNAME;
-                    buf = ack.getBytes();
-                    packet = new DatagramPacket(buf, buf.length, senderIP, senderPort);
-                    try {
-                        this.udpSocket.send(packet);
-                        System.out.println(
-                                "Sending stop ack " + ack + " to " + senderIP.getHostAddress() + ":" + senderPort);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                    p.stop();
-                    System.out.println("Stopping UDP...");
-                    while (true) {
-                        try {
-                            packet = new DatagramPacket(buf, buf.length);
-                            this.udpSocket.receive(packet);
-                            msg = new String(packet.getData(), 0, packet.getLength());
-                            if (!processMessage(msg)[0].equals("stop"))
-                                continue;
-                            System.out.println("Received stop");
-                            senderIP = packet.getAddress();
-                            senderPort = packet.getPort();
-                            packet = new DatagramPacket(buf, buf.length, senderIP, senderPort);
-                            System.out.println(
-                                    "Sending stop ack " + ack + " to " + senderIP.getHostAddress() + ":" + senderPort);
-                            this.udpSocket.send(packet);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            break;
-                        }
-                    }
-                    break;
+            dispatch(buf, 0, packet.getLength(), packet.getAddress(), packet.getPort());
+        }
+    }
+
+    /**
+     * Passes a received message to this MessageHandler object's MessagePipeline,
+     * or handles it on the calling thread if there is no MessagePipeline.
+     * 
+     * @param data    the buffer containing the message
+     * @param offset  the index of the first byte of the message
+     * @param length  the number of bytes in the message
+     * @param address the IP address the message was sent from
+     * @param port    the Port the message was sent from
+     */
+    void dispatch(byte[] data, int offset, int length, InetAddress address, int port) {
+        if (pipeline != null) {
+            pipeline.offer(data, offset, length, address, port);
+        } else {
+            handle(data, offset, length, address, port);
+        }
+    }
+
+    /**
+     * Handles one message that was received on the UDP socket of the Peer object.
+     * 
+     * @param data    the buffer containing the message
+     * @param offset  the index of the first byte of the message
+     * @param length  the number of bytes in the message
+     * @param address the IP address the message was sent from
+     * @param port    the Port the message was sent from
+     */
+    void handle(byte[] data, int offset, int length, InetAddress address, int port) {
+        long start = System.nanoTime();
+        boolean valid = view.parse(data, offset, length);
+
+        if (p.getStop()) {
+            // once stopped, only stop messages are answered
+            p.setLingerDeadline(System.currentTimeMillis() + STOP_LINGER_MILLIS);
+            if (view.getType() == MessageView.TYPE_STOP) {
+                System.out.println("Received stop");
+                sendAck(address, port);
             }
+            return;
+        }
+
+        if (!valid) {
+            p.getMetrics().recordParseFailure();
+            System.err.println("Invalid message from " + address.getHostAddress() + ":" + port);
+            return;
+        }
+
+        switch (view.getType()) {
+            case MessageView.TYPE_PEER:
+                handlePeer(address, port);
+                break;
+            case MessageView.TYPE_SNIP:
+                addSnippet(new Snippet(view.getContent(), PeerLocation.of(address, port),
+                        view.getTimestamp()), true, Peer.FORWARD_TTL, 0);
+                break;
+            case MessageView.TYPE_FRAG:
+                PeerLocation source = PeerLocation.of(address, port);
+                // pieces are reassembled by packed address, which only IPv4 senders have
+                if (source.getAddress() < 0)
+                    break;
+                String content = p.getReassemblyCache().add(source.getAddress(), view, data);
+                if (content != null)
+                    addSnippet(new Snippet(content.strip(), source, view.getTimestamp()), true, Peer.FORWARD_TTL, 0);
+                break;
+            case MessageView.TYPE_FWRD:
+                handleForward(address, port);
+                break;
+            case MessageView.TYPE_DGST:
+            case MessageView.TYPE_WANT:
+                handleSync(address, port);
+                break;
+            case MessageView.TYPE_STOP:
+                handleStop(address, port);
+                break;
+            case MessageView.TYPE_PULL:
+                p.answerPull(PeerLocation.of(address, port));
+                break;
+            case MessageView.TYPE_PING:
+            case MessageView.TYPE_PONG:
+            case MessageView.TYPE_PREQ:
+                handleProbe(address, port);
+                break;
+            case MessageView.TYPE_ACKS:
+                p.addAcks(view.getAcked(), view.getAckedCount(), PeerLocation.of(address, port));
+                break;
+            case MessageView.TYPE_VIEW:
+                handleView(address, port);
+                break;
+            case MessageView.TYPE_PEERS:
+                // the entries are reused by the next message, so they are added even when batching
+                p.addPeers(view.getEntries(), view.getAges(), view.getEntryCount(), PeerLocation.of(address, port));
+                break;
+        }
+        p.getMetrics().recordMessage(view.getType(), System.nanoTime() - start);
+    }
+
+    /**
+     * Handles the fwrd message that this MessageHandler object's MessageView is
+     * pointing at. The snippet is added as if its source had sent it, but it is
+     * not acknowledged, since its source did not send it to this Peer object.
+     * 
+     * @param address the IP address the message was sent from
+     * @param port    the Port the message was sent from
+     */
+    private void handleForward(InetAddress address, int port) {
+        long sender = PeerLocation.of(address, port).getAddress();
+        p.markAlive(sender);
+        addSnippet(new Snippet(view.getContent(), PeerLocation.of(view.getAddress()), view.getTimestamp()),
+                false, view.getTtl(), sender);
+    }
+
+    /**
+     * Handles the dgst or want message that this MessageHandler object's
+     * MessageView is pointing at. Both are ignored if the Peer object does not
+     * compare snippet histories.
+     * 
+     * @param address the IP address the message was sent from
+     * @param port    the Port the message was sent from
+     */
+    private void handleSync(InetAddress address, int port) {
+        AntiEntropy entropy = p.getAntiEntropy();
+        if (entropy == null)
+            return;
+        long sender = PeerLocation.of(address, port).getAddress();
+        p.markAlive(sender);
+        if (view.getType() == MessageView.TYPE_DGST) {
+            entropy.onDigest(view, sender);
+        } else {
+            entropy.onWant(view, sender);
+        }
+    }
+
+    /**
+     * Acknowledges a received snippet if its source sent it, and adds it to the
+     * Peer object, or to the current batch, and forwards it unless it was
+     * received before.
+     * 
+     * @param snippet the Snippet that was received
+     * @param ack     <code>true</code> if the snippet should be acknowledged
+     * @param ttl     the number of hops the snippet has left to be forwarded
+     * @param from    the packed address of the peer that forwarded the snippet,
+     *                or <code>0</code> if its source sent it
+     */
+    private void addSnippet(Snippet snippet, boolean ack, int ttl, long from) {
+        if (ack)
+            p.ackSnippet(snippet);
+        if (!p.isNewSnippet(snippet))
+            return;
+        p.forwardSnippet(snippet, ttl, from);
+        if (batching) {
+            batchSnippets.add(snippet);
+        } else {
+            p.addSnippet(snippet);
+        }
+    }
+
+    /**
+     * Starts collecting the peer and snippet messages passed to {@link #handle}
+     * instead of adding them to the Peer object one at a time.
+     */
+    void beginBatch() {
+        batching = true;
+    }
+
+    /**
+     * Adds all peer and snippet messages collected since {@link #beginBatch} to
+     * the Peer object with one bulk update each, and stops collecting.
+     */
+    void endBatch() {
+        batching = false;
+        if (!batchPeers.isEmpty()) {
+            p.addPeers(batchPeers, batchSenders);
+            batchPeers.clear();
+            batchSenders.clear();
+        }
+        if (!batchSnippets.isEmpty()) {
+            p.addSnippets(batchSnippets);
+            batchSnippets.clear();
+        }
+    }
+
+    /**
+     * Checks if this MessageHandler object has finished handling messages. A
+     * MessageHandler is finished once its Peer object has stopped and no message
+     * has arrived for <code>STOP_LINGER_MILLIS</code>.
+     * 
+     * @return <code>true</code> if this MessageHandler object has finished
+     */
+    boolean isDone() {
+        return p.getStop() && System.currentTimeMillis() > p.getLingerDeadline();
+    }
+
+    /**
+     * Handles the peer message that this MessageHandler object's MessageView is
+     * pointing at.
+     * 
+     * @param address the IP address the message was sent from
+     * @param port    the Port the message was sent from
+     */
+    private void handlePeer(InetAddress address, int port) {
+        long location = view.getAddress();
+        PeerLocation peer = PeerLocation.of(location);
+        PeerLocation sender = PeerLocation.of(address, port);
+        if (view.getAge() >= 0) {
+            // a batch gives every peer the same time, so a peer with an age is added at once
+            p.addPeer(peer, view.getAge(), sender);
+        } else if (batching) {
+            batchPeers.add(peer);
+            batchSenders.add(sender);
+        } else {
+            p.addPeer(peer, sender);
+        }
+    }
+
+    /**
+     * Handles the ping, pong or preq message that this MessageHandler object's
+     * MessageView is pointing at. Probes are ignored if the Peer object is not
+     * running a FailureDetector.
+     * 
+     * @param address the IP address the message was sent from
+     * @param port    the Port the message was sent from
+     */
+    private void handleProbe(InetAddress address, int port) {
+        FailureDetector detector = p.getFailureDetector();
+        if (detector == null)
+            return;
+        PeerLocation sender = PeerLocation.of(address, port);
+        p.markAlive(sender.getAddress());
+        switch (view.getType()) {
+            case MessageView.TYPE_PING:
+                detector.onPing(view, sender);
+                break;
+            case MessageView.TYPE_PONG:
+                detector.onPong(view, sender);
+                break;
+            case MessageView.TYPE_PREQ:
+                detector.onPingRequest(view, sender);
+                break;
+        }
+    }
+
+    /**
+     * Handles a view message by marking the sender alive and passing the message
+     * to the PartialView of the Peer object. View messages are ignored unless
+     * <code>peer.hyparview</code> is set.
+     * 
+     * @param address the IP address the view message was sent from
+     * @param port    the Port the view message was sent from
+     */
+    private void handleView(InetAddress address, int port) {
+        PartialView overlay = p.getOverlay();
+        if (overlay == null)
+            return;
+        long sender = PeerLocation.of(address, port).getAddress();
+        p.markAlive(sender);
+        overlay.onMessage(view, sender);
+    }
+
+    /**
+     * Handles a stop message by sending an ack to the sender and stopping the Peer
+     * object. Further stop messages are acknowledged until no message arrives for
+     * <code>STOP_LINGER_MILLIS</code>.
+     * 
+     * @param address the IP address the stop message was sent from
+     * @param port    the Port the stop message was sent from
+     */
+    private void handleStop(InetAddress address, int port) {
+        System.out.println("Received stop");
+        sendAck(address, port);
+        p.setLingerDeadline(System.currentTimeMillis() + STOP_LINGER_MILLIS);
+        p.stop();
+        System.out.println("Stopping UDP...");
+    }
+
+    /**
+     * Sends a stop ack to a peer.
+     * 
+     * @param address the IP address to send the ack to
+     * @param port    the Port to send the ack to
+     */
+    private void sendAck(InetAddress address, int port) {
+        if (ack == null)
+            ack = ("ack" + p.TEAMNAME).getBytes();
+        try {
+            p.send(ack, ack.length, PeerLocation.of(address, port), SendScheduler.CONTROL);
+            System.out.println("Sending stop ack ack" + p.TEAMNAME + " to " + address.getHostAddress() + ":" + port);
+        } catch (Exception e) {
+            e.printStackTrace();
         }
     }
 
@@ -125,27 +397,13 @@ public class MessageHandler implements Runnable {
      *         message
      */
     public static String[] processMessage(String msg) {
-        String[] processedMessage;
-        try {
-            msg = msg.trim();
-            String msgType = msg.substring(0, 4).toLowerCase();
-            String msgContent = msg.substring(4).trim();
-
-            if (msgType.equals("peer")) {
-                String ip = msgContent.split(":")[0];
-                int port = Integer.parseInt(msgContent.split(":")[1]);
-                if (port < 0 || port > 65535)
-                    throw new Exception();
-                if (!ip.matches("(\\b25[0-5]|\\b2[0-4][0-9]|\\b[01]?[0-9][0-9]?)(\\.(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)){3}"))
-                    throw new Exception();
-            }
-
-            processedMessage = new String[] { msgType, msgContent };
-        } catch (Exception e) {
-            e.printStackTrace();
-            processedMessage = new String[] { "", "" };
+        msg = msg.trim();
+        byte[] data = msg.getBytes();
+        if (!new MessageView().parse(data, 0, data.length)) {
+            System.err.println("Invalid message: " + msg);
+            return new String[] { "", "" };
         }
-        return processedMessage;
+        return new String[] { msg.substring(0, 4).toLowerCase(), msg.substring(4).trim() };
     }
 
     /**
@@ -159,17 +417,21 @@ public class MessageHandler implements Runnable {
      * @return a Snippet object containing the contents of the snippet message
      */
     public static Snippet processSnippet(String snippet, DatagramPacket d) throws Exception {
-        Snippet s;
-        String[] splitSnippet = snippet.split(" ");
-        int timestamp = Integer.parseInt(splitSnippet[0]);
-        String content = "";
-        for (int i = 1; i < splitSnippet.length; i++) {
-            content += splitSnippet[i] + " ";
-        }
-        content = content.strip();
-        String sourceIP = d.getAddress().getHostAddress();
-        int sourcePort = d.getPort();
-        s = new Snippet(content, new PeerLocation(sourceIP, sourcePort), timestamp);
-        return s;
+        return processSnippet(snippet, PeerLocation.of(d.getAddress(), d.getPort()));
+    }
+
+    /**
+     * Processes a snippet message sent by the given source peer.
+     * 
+     * @param snippet the snippet message received
+     * @param source  the PeerLocation the snippet message was sent from
+     * @throws Exception if the snippet message does not follow the protocol
+     * @return a Snippet object containing the contents of the snippet message
+     */
+    public static Snippet processSnippet(String snippet, PeerLocation source) throws Exception {
+        int space = snippet.indexOf(' ');
+        int timestamp = Integer.parseInt(space < 0 ? snippet : snippet.substring(0, space));
+        String content = space < 0 ? "" : snippet.substring(space + 1).strip();
+        return new Snippet(content, source, timestamp);
     }
 }
\ No newline at end of file
@@ -0,0 +1,172 @@
+package main.java;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MessagePipeline is a class that moves message handling off the UDP receive
+ * thread of a Peer object.
+ * The receive thread only copies each message into a MessageRing, and a fixed
+ * number of worker threads handle the messages with their own MessageHandler.
+ * Messages are partitioned by their source IP address and Port, so all messages
+ * from one peer are handled by the same worker in the order they arrived.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class MessagePipeline {
+    // slots in each worker's ring
+    private static final int RING_CAPACITY = 4096;
+    // how many times an idle worker checks its ring before parking
+    private static final int SPINS = 100;
+    // the longest an idle worker parks before checking its ring again
+    private static final long PARK_NANOS = 1000000;
+
+    private final Worker[] workers;
+    private final AtomicLong dropped = new AtomicLong();
+    private final long startTime = System.nanoTime();
+    private volatile boolean running = true;
+
+    /**
+     * Worker is a thread that handles every message in one MessageRing.
+     */
+    private class Worker extends Thread {
+        private final MessageRing ring = new MessageRing(RING_CAPACITY, 1024);
+        private final MessageHandler handler;
+        private volatile boolean parked = false;
+        private volatile long busyNanos = 0;
+
+        Worker(Peer p, int id) {
+            super("peer-worker-" + id);
+            setDaemon(true);
+            this.handler = new MessageHandler(p);
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running || ring.size() > 0) {
+                if (ring.size() == 0) {
+                    if (++idle < SPINS) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    parked = true;
+                    if (ring.size() == 0)
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    parked = false;
+                    idle = 0;
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                if (Peer.BATCH_RECEIVE)
+                    handler.beginBatch();
+                try {
+                    while (ring.poll(handler))
+                        ;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    if (Peer.BATCH_RECEIVE)
+                        handler.endBatch();
+                }
+                busyNanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Class constructor that specifies the Peer object whose messages are handled
+     * and the number of worker threads, and starts the workers.
+     *
+     * @param p       the Peer object that the messages are handled for
+     * @param workers the number of worker threads
+     */
+    MessagePipeline(Peer p, int workers) {
+        this.workers = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new Worker(p, i);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Copies a message into the ring of the worker responsible for its source.
+     * This method does not block: if that ring is full, the message is dropped and
+     * counted.
+     *
+     * @param buf     the buffer containing the message
+     * @param offset  the index of the first byte of the message
+     * @param length  the number of bytes in the message
+     * @param address the IP address the message was sent from
+     * @param port    the Port the message was sent from
+     */
+    public void offer(byte[] buf, int offset, int length, InetAddress address, int port) {
+        int hash = 31 * address.hashCode() + port;
+        hash ^= hash >>> 16;
+        Worker w = workers[(hash & Integer.MAX_VALUE) % workers.length];
+        if (!w.ring.offer(buf, offset, length, address, port)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (w.parked)
+            LockSupport.unpark(w);
+    }
+
+    /**
+     * Gets the number of messages waiting in all worker rings.
+     *
+     * @return the total ring depth
+     */
+    public int getRingDepth() {
+        int depth = 0;
+        for (Worker w : workers) {
+            depth += w.ring.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Gets the number of messages dropped because a worker ring was full.
+     *
+     * @return the number of dropped messages
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the fraction of time since this MessagePipeline object started that
+     * each worker spent handling messages.
+     *
+     * @return the utilisation of each worker, between <code>0</code> and
+     *         <code>1</code>
+     */
+    public double[] getWorkerUtilisation() {
+        double elapsed = Math.max(1, System.nanoTime() - startTime);
+        double[] utilisation = new double[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            utilisation[i] = workers[i].busyNanos / elapsed;
+        }
+        return utilisation;
+    }
+
+    /**
+     * Stops the worker threads once they have handled every message already in
+     * their rings.
+     */
+    public void shutdown() {
+        running = false;
+        for (Worker w : workers) {
+            LockSupport.unpark(w);
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
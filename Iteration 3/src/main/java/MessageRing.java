@@ -0,0 +1,112 @@
+package main.java;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * MessageRing is a class that represents a bounded, lock-free ring buffer of
+ * raw UDP messages with many producers and a single consumer.
+ * Every slot owns a preallocated byte array, so offering a message only copies
+ * its bytes and never allocates. Each slot has a sequence number that tells
+ * producers when the slot is free and the consumer when it has been published.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class MessageRing {
+    private final int mask;
+    private final byte[][] data;
+    private final int[] lengths;
+    private final InetAddress[] addresses;
+    private final int[] ports;
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head = 0;
+
+    /**
+     * Class constructor that specifies the number of slots in this MessageRing
+     * object and the largest message a slot can hold.
+     *
+     * @param capacity   the number of slots, which must be a power of two
+     * @param maxMessage the largest message in bytes that a slot can hold
+     */
+    MessageRing(int capacity, int maxMessage) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        this.mask = capacity - 1;
+        this.data = new byte[capacity][maxMessage];
+        this.lengths = new int[capacity];
+        this.addresses = new InetAddress[capacity];
+        this.ports = new int[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Copies a message into the next free slot of this MessageRing object. This
+     * method can be called from any thread.
+     *
+     * @param buf     the buffer containing the message
+     * @param offset  the index of the first byte of the message
+     * @param length  the number of bytes in the message
+     * @param address the IP address the message was sent from
+     * @param port    the Port the message was sent from
+     * @return <code>false</code> if the ring is full and the message was dropped
+     */
+    public boolean offer(byte[] buf, int offset, int length, InetAddress address, int port) {
+        long pos;
+        int slot;
+        while (true) {
+            pos = tail.get();
+            slot = (int) pos & mask;
+            long seq = sequences.get(slot);
+            if (seq < pos)
+                return false; // the consumer has not freed this slot yet
+            if (seq == pos && tail.compareAndSet(pos, pos + 1))
+                break;
+        }
+
+        length = Math.min(length, data[slot].length);
+        System.arraycopy(buf, offset, data[slot], 0, length);
+        lengths[slot] = length;
+        addresses[slot] = address;
+        ports[slot] = port;
+        sequences.set(slot, pos + 1); // publish
+        return true;
+    }
+
+    /**
+     * Passes the oldest published message of this MessageRing object to a
+     * MessageHandler and frees its slot. Only the single consumer thread may call
+     * this method.
+     *
+     * @param handler the MessageHandler that handles the message
+     * @return <code>false</code> if the ring had no published message
+     */
+    public boolean poll(MessageHandler handler) {
+        long pos = head;
+        int slot = (int) pos & mask;
+        if (sequences.get(slot) != pos + 1)
+            return false;
+
+        handler.handle(data[slot], 0, lengths[slot], addresses[slot], ports[slot]);
+        addresses[slot] = null;
+        head = pos + 1;
+        sequences.set(slot, pos + mask + 1); // free the slot for the next lap
+        return true;
+    }
+
+    /**
+     * Gets the number of messages waiting in this MessageRing object.
+     *
+     * @return the number of messages offered but not yet polled
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+}
@@ -0,0 +1,1004 @@
+package main.java;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+
+/**
+ * MessageView is a class that parses a UDP message outlined by the protocol in
+ * a single pass over its raw bytes.
+ * A MessageView object is reused for every message: parsing a message only sets
+ * the type, the packed address of a peer message, the timestamp of a snip or
+ * frag message, the position of a frag message and the offsets of the content,
+ * without decoding any Strings.
+ * A frag message carries one piece of a snippet that is too large for one
+ * datagram, in the form
+ * <code>frag&lt;timestamp&gt; &lt;index&gt; &lt;count&gt; &lt;bytes&gt;</code>.
+ * Its bytes are not trimmed.
+ * A pull message has no content and asks the receiver to gossip some of its
+ * known peers back to the sender.
+ * A peer list carries many peers in one datagram, either as text in the form
+ * <code>list&lt;ip:port&gt; &lt;ip:port&gt; ...</code> or in binary as
+ * <code>bulk</code> followed by ten bytes per peer: the IPv4 address, the Port
+ * and the age, big-endian. The bytes of a bulk message are not trimmed.
+ * The age of a peer is how many milliseconds ago the sender last heard from
+ * it. A peer message or a peer of a text list may carry it after a slash, as
+ * in <code>&lt;ip:port&gt;/&lt;age&gt;</code>; a negative age in a bulk
+ * message means the sender did not give one.
+ * The failure detector probes peers with <code>ping&lt;seq&gt;</code>, answered
+ * by <code>pong&lt;seq&gt;</code>, and asks other peers to probe for it with
+ * <code>preq&lt;seq&gt; &lt;ip:port&gt;</code>. Each of them can carry
+ * membership updates in the form <code>&lt;state&gt;&lt;incarnation&gt;@&lt;ip:port&gt;</code>
+ * after a space, where the state is <code>a</code> for alive, <code>s</code>
+ * for suspect or <code>d</code> for dead.
+ * The partial view overlay keeps its views with
+ * <code>view&lt;op&gt;[&lt;ttl&gt;] [&lt;ip:port&gt; ...]</code>, where the
+ * operation is one letter, the time to live of a random walk is optional and
+ * the peers are written as in a text peer list.
+ * Received snippets are acknowledged in batches with
+ * <code>acks&lt;timestamp&gt; &lt;timestamp&gt; ...</code>, which lists the
+ * timestamps of the snippets received from the peer the acks are sent to.
+ * A snippet passed on by a peer other than its source is sent as
+ * <code>fwrd&lt;timestamp&gt; &lt;ttl&gt; &lt;ip:port&gt; &lt;content&gt;</code>,
+ * where the address is the source of the snippet and the time to live is the
+ * number of times it may still be passed on.
+ * Peers compare their snippet histories with
+ * <code>dgst&lt;count&gt; &lt;hash&gt; [&lt;count&gt;:&lt;hash&gt;@&lt;ip:port&gt; ...]</code>,
+ * which carries the number of snippets and a hash of their timestamps, in
+ * total and optionally for each source, and ask for the snippets of a source
+ * they are missing with
+ * <code>want&lt;floor&gt; &lt;ip:port&gt; [&lt;timestamp&gt; ...]</code>, which
+ * lists the timestamps above the floor they already have.
+ * IP addresses and Ports are validated arithmetically instead of with regular
+ * expressions.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class MessageView {
+    static final int TYPE_UNKNOWN = 0;
+    static final int TYPE_PEER = 1;
+    static final int TYPE_SNIP = 2;
+    static final int TYPE_STOP = 3;
+    static final int TYPE_FRAG = 4;
+    static final int TYPE_PULL = 5;
+    static final int TYPE_PEERS = 6;
+    static final int TYPE_PING = 7;
+    static final int TYPE_PONG = 8;
+    static final int TYPE_PREQ = 9;
+    static final int TYPE_VIEW = 10;
+    static final int TYPE_ACKS = 11;
+    static final int TYPE_FWRD = 12;
+    static final int TYPE_DGST = 13;
+    static final int TYPE_WANT = 14;
+    // one more than the largest type
+    static final int TYPE_COUNT = 15;
+
+    // the states of a membership update
+    static final byte ALIVE = 'a';
+    static final byte SUSPECT = 's';
+    static final byte DEAD = 'd';
+
+    // the operations of a view message
+    static final byte JOIN = 'j';
+    static final byte FORWARD_JOIN = 'f';
+    static final byte NEIGHBOR = 'n';
+    static final byte ACCEPT = 'a';
+    static final byte REJECT = 'r';
+    static final byte DISCONNECT = 'd';
+    static final byte SHUFFLE = 's';
+    static final byte SHUFFLE_REPLY = 'p';
+
+    // the number of bytes of one peer in a bulk message
+    static final int BULK_ENTRY = 10;
+
+    // the first four bytes of each message type packed big-endian into an int
+    private static final int PEER = ('p' << 24) | ('e' << 16) | ('e' << 8) | 'r';
+    private static final int SNIP = ('s' << 24) | ('n' << 16) | ('i' << 8) | 'p';
+    private static final int STOP = ('s' << 24) | ('t' << 16) | ('o' << 8) | 'p';
+    private static final int FRAG = ('f' << 24) | ('r' << 16) | ('a' << 8) | 'g';
+    private static final int PULL = ('p' << 24) | ('u' << 16) | ('l' << 8) | 'l';
+    private static final int LIST = ('l' << 24) | ('i' << 16) | ('s' << 8) | 't';
+    private static final int BULK = ('b' << 24) | ('u' << 16) | ('l' << 8) | 'k';
+    private static final int PING = ('p' << 24) | ('i' << 16) | ('n' << 8) | 'g';
+    private static final int PONG = ('p' << 24) | ('o' << 16) | ('n' << 8) | 'g';
+    private static final int PREQ = ('p' << 24) | ('r' << 16) | ('e' << 8) | 'q';
+    private static final int VIEW = ('v' << 24) | ('i' << 16) | ('e' << 8) | 'w';
+    private static final int ACKS = ('a' << 24) | ('c' << 16) | ('k' << 8) | 's';
+    private static final int FWRD = ('f' << 24) | ('w' << 16) | ('r' << 8) | 'd';
+    private static final int DGST = ('d' << 24) | ('g' << 16) | ('s' << 8) | 't';
+    private static final int WANT = ('w' << 24) | ('a' << 16) | ('n' << 8) | 't';
+
+    private static final byte[] LIST_TYPE = "list".getBytes();
+    private static final byte[] BULK_TYPE = "bulk".getBytes();
+
+    private byte[] data;
+    private int type;
+    private long address;
+    private int age;
+    private int timestamp;
+    private int fragmentIndex;
+    private int fragmentCount;
+    private int number;
+    private int contentStart;
+    private int contentEnd;
+    private long[] entries = new long[64];
+    private int[] ages = new int[64];
+    private byte[] states = new byte[64];
+    private int[] incarnations = new int[64];
+    private int entryCount;
+    private int sequence;
+    private byte operation;
+    private int ttl;
+    private int[] acked = new int[64];
+    private int ackedCount;
+    private int digestCount;
+    private int digestHash;
+    private int[] counts = new int[64];
+    private int[] hashes = new int[64];
+
+    /**
+     * Parses a message and points this MessageView object at it. The buffer must
+     * not be changed while the view is in use.
+     *
+     * @param buf    the buffer containing the message
+     * @param offset the index of the first byte of the message
+     * @param length the number of bytes in the message
+     * @return <code>true</code> if the message follows the protocol
+     */
+    public boolean parse(byte[] buf, int offset, int length) {
+        this.data = buf;
+        this.address = -1;
+        this.age = -1;
+        this.timestamp = 0;
+        int start = skipWhitespace(buf, offset, offset + length);
+        int end = trimWhitespace(buf, start, offset + length);
+        this.type = messageType(buf, start, end - start);
+        this.contentStart = skipWhitespace(buf, Math.min(start + 4, end), end);
+        this.contentEnd = end;
+
+        int i;
+        switch (type) {
+            case TYPE_PEER:
+                address = parseAged(buf, contentStart, contentEnd);
+                return address >= 0;
+            case TYPE_SNIP:
+                i = parseNumber(buf, contentStart, end);
+                if (i < 0 || (i < end && buf[i] != ' '))
+                    return false;
+                timestamp = number;
+                contentStart = skipWhitespace(buf, i, end);
+                return true;
+            case TYPE_FRAG:
+                // the bytes of a fragment run to the end of the datagram, whitespace included
+                end = offset + length;
+                i = parseNumber(buf, contentStart, end);
+                if (i < 0 || i == end || buf[i] != ' ')
+                    return false;
+                timestamp = number;
+                i = parseNumber(buf, i + 1, end);
+                if (i < 0 || i == end || buf[i] != ' ')
+                    return false;
+                fragmentIndex = number;
+                i = parseNumber(buf, i + 1, end);
+                if (i < 0 || i == end || buf[i] != ' ' || fragmentIndex >= number)
+                    return false;
+                fragmentCount = number;
+                contentStart = i + 1;
+                contentEnd = end;
+                return true;
+            case TYPE_PEERS:
+                entryCount = 0;
+                if ((buf[start] | 0x20) == 'b') {
+                    // the entries of a bulk message are raw bytes, whitespace included
+                    end = offset + length;
+                    if ((end - start - 4) % BULK_ENTRY != 0)
+                        return false;
+                    for (i = start + 4; i < end; i += BULK_ENTRY) {
+                        int ip = (buf[i] & 0xff) << 24 | (buf[i + 1] & 0xff) << 16 | (buf[i + 2] & 0xff) << 8
+                                | (buf[i + 3] & 0xff);
+                        int port = (buf[i + 4] & 0xff) << 8 | (buf[i + 5] & 0xff);
+                        if (!addEntry(pack(ip, port)))
+                            return false;
+                        ages[entryCount - 1] = (buf[i + 6] & 0xff) << 24 | (buf[i + 7] & 0xff) << 16
+                                | (buf[i + 8] & 0xff) << 8 | (buf[i + 9] & 0xff);
+                    }
+                    return entryCount > 0;
+                }
+                i = contentStart;
+                while (i < end) {
+                    int j = i;
+                    while (j < end && buf[j] != ' ')
+                        j++;
+                    if (!addEntry(parseAged(buf, i, j)))
+                        return false;
+                    ages[entryCount - 1] = age;
+                    i = skipWhitespace(buf, j, end);
+                }
+                age = -1;
+                return entryCount > 0;
+            case TYPE_PING:
+            case TYPE_PONG:
+            case TYPE_PREQ:
+                entryCount = 0;
+                i = parseNumber(buf, contentStart, end);
+                if (i < 0)
+                    return false;
+                sequence = number;
+                if (type == TYPE_PREQ) {
+                    if (i == end || buf[i] != ' ')
+                        return false;
+                    int j = i + 1;
+                    while (j < end && buf[j] != ' ')
+                        j++;
+                    address = parseAddress(buf, i + 1, j);
+                    if (address <= 0)
+                        return false;
+                    i = j;
+                }
+                while (i < end) {
+                    if (buf[i] != ' ')
+                        return false;
+                    i = skipWhitespace(buf, i, end);
+                    byte state = buf[i];
+                    if (state != ALIVE && state != SUSPECT && state != DEAD)
+                        return false;
+                    i = parseNumber(buf, i + 1, end);
+                    if (i < 0 || i == end || buf[i] != '@')
+                        return false;
+                    int incarnation = number;
+                    int j = i + 1;
+                    while (j < end && buf[j] != ' ')
+                        j++;
+                    if (!addEntry(parseAddress(buf, i + 1, j)))
+                        return false;
+                    states[entryCount - 1] = state;
+                    incarnations[entryCount - 1] = incarnation;
+                    i = j;
+                }
+                return true;
+            case TYPE_VIEW:
+                entryCount = 0;
+                i = contentStart;
+                if (i == end)
+                    return false;
+                operation = (byte) (buf[i] | 0x20);
+                ttl = 0;
+                i++;
+                if (i < end && buf[i] != ' ') {
+                    i = parseNumber(buf, i, end);
+                    if (i < 0)
+                        return false;
+                    ttl = number;
+                }
+                i = skipWhitespace(buf, i, end);
+                while (i < end) {
+                    int j = i;
+                    while (j < end && buf[j] != ' ')
+                        j++;
+                    if (!addEntry(parseAddress(buf, i, j)))
+                        return false;
+                    i = skipWhitespace(buf, j, end);
+                }
+                switch (operation) {
+                    case JOIN:
+                    case NEIGHBOR:
+                    case ACCEPT:
+                    case REJECT:
+                    case DISCONNECT:
+                    case SHUFFLE_REPLY:
+                        return true;
+                    case FORWARD_JOIN:
+                    case SHUFFLE:
+                        return entryCount > 0;
+                    default:
+                        return false;
+                }
+            case TYPE_FWRD:
+                i = parseNumber(buf, contentStart, end);
+                if (i < 0 || i == end || buf[i] != ' ')
+                    return false;
+                timestamp = number;
+                i = parseNumber(buf, i + 1, end);
+                if (i < 0 || i == end || buf[i] != ' ')
+                    return false;
+                ttl = number;
+                int j = i + 1;
+                while (j < end && buf[j] != ' ')
+                    j++;
+                address = parseAddress(buf, i + 1, j);
+                if (address <= 0)
+                    return false;
+                contentStart = skipWhitespace(buf, j, end);
+                return true;
+            case TYPE_ACKS:
+                ackedCount = 0;
+                // the first timestamp follows the type without a space
+                i = start + 4;
+                while (i < end) {
+                    i = parseNumber(buf, i, end);
+                    if (i < 0 || (i < end && buf[i] != ' '))
+                        return false;
+                    if (ackedCount == acked.length)
+                        acked = Arrays.copyOf(acked, ackedCount * 2);
+                    acked[ackedCount++] = number;
+                    i = skipWhitespace(buf, i, end);
+                }
+                return ackedCount > 0;
+            case TYPE_DGST:
+                entryCount = 0;
+                i = parseNumber(buf, contentStart, end);
+                if (i < 0 || i == end || buf[i] != ' ')
+                    return false;
+                digestCount = number;
+                i = parseNumber(buf, i + 1, end);
+                if (i < 0)
+                    return false;
+                digestHash = number;
+                while (i < end) {
+                    if (buf[i] != ' ')
+                        return false;
+                    i = parseNumber(buf, skipWhitespace(buf, i, end), end);
+                    if (i < 0 || i == end || buf[i] != ':')
+                        return false;
+                    int count = number;
+                    i = parseNumber(buf, i + 1, end);
+                    if (i < 0 || i == end || buf[i] != '@')
+                        return false;
+                    int hash = number;
+                    int k = i + 1;
+                    while (k < end && buf[k] != ' ')
+                        k++;
+                    if (!addEntry(parseAddress(buf, i + 1, k)))
+                        return false;
+                    counts[entryCount - 1] = count;
+                    hashes[entryCount - 1] = hash;
+                    i = k;
+                }
+                return true;
+            case TYPE_WANT:
+                ackedCount = 0;
+                i = parseNumber(buf, contentStart, end);
+                if (i < 0 || i == end || buf[i] != ' ')
+                    return false;
+                timestamp = number;
+                int k = i + 1;
+                while (k < end && buf[k] != ' ')
+                    k++;
+                address = parseAddress(buf, i + 1, k);
+                if (address <= 0)
+                    return false;
+                i = skipWhitespace(buf, k, end);
+                while (i < end) {
+                    i = parseNumber(buf, i, end);
+                    if (i < 0 || (i < end && buf[i] != ' '))
+                        return false;
+                    if (ackedCount == acked.length)
+                        acked = Arrays.copyOf(acked, ackedCount * 2);
+                    acked[ackedCount++] = number;
+                    i = skipWhitespace(buf, i, end);
+                }
+                return true;
+            case TYPE_STOP:
+            case TYPE_PULL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Adds a peer of a peer list to this MessageView object's entries.
+     *
+     * @param address the packed address of the peer
+     * @return <code>true</code> if the address is a valid peer address
+     */
+    private boolean addEntry(long address) {
+        if (address <= 0)
+            return false;
+        if (entryCount == entries.length) {
+            entries = Arrays.copyOf(entries, entryCount * 2);
+            ages = Arrays.copyOf(ages, entryCount * 2);
+            states = Arrays.copyOf(states, entryCount * 2);
+            incarnations = Arrays.copyOf(incarnations, entryCount * 2);
+            counts = Arrays.copyOf(counts, entryCount * 2);
+            hashes = Arrays.copyOf(hashes, entryCount * 2);
+        }
+        entries[entryCount++] = address;
+        return true;
+    }
+
+    /**
+     * Parses an address that may be followed by a slash and its age, setting
+     * <code>age</code> to the age or to <code>-1</code> if there is none.
+     *
+     * @param buf   the buffer containing the address
+     * @param start the index of the first byte of the address
+     * @param end   the index after the last byte of the address or its age
+     * @return the packed address, or <code>-1</code> if the range is not a valid
+     *         address with an optional age
+     */
+    private long parseAged(byte[] buf, int start, int end) {
+        age = -1;
+        int slash = start;
+        while (slash < end && buf[slash] != '/')
+            slash++;
+        if (slash < end) {
+            if (parseNumber(buf, slash + 1, end) != end)
+                return -1;
+            age = number;
+        }
+        return parseAddress(buf, start, slash);
+    }
+
+    /**
+     * Parses a non-negative decimal int from the given range of a buffer into
+     * <code>number</code>.
+     *
+     * @param buf   the buffer containing the number
+     * @param start the index of the first digit
+     * @param end   the index after the last byte of the range
+     * @return the index after the last digit, or <code>-1</code> if there is no
+     *         number or it does not fit in an int
+     */
+    private int parseNumber(byte[] buf, int start, int end) {
+        int i = start;
+        long n = 0;
+        while (i < end && buf[i] >= '0' && buf[i] <= '9') {
+            n = n * 10 + (buf[i] - '0');
+            if (n > Integer.MAX_VALUE)
+                return -1;
+            i++;
+        }
+        if (i == start)
+            return -1;
+        number = (int) n;
+        return i;
+    }
+
+    /**
+     * Gets the type of the message this MessageView object is pointing at.
+     *
+     * @return one of <code>TYPE_PEER</code>, <code>TYPE_SNIP</code>,
+     *         <code>TYPE_STOP</code>, <code>TYPE_FRAG</code>,
+     *         <code>TYPE_PULL</code>, <code>TYPE_PEERS</code>,
+     *         <code>TYPE_PING</code>, <code>TYPE_PONG</code>,
+     *         <code>TYPE_PREQ</code>, <code>TYPE_VIEW</code>,
+     *         <code>TYPE_ACKS</code>, <code>TYPE_FWRD</code>,
+     *         <code>TYPE_DGST</code>, <code>TYPE_WANT</code> or
+     *         <code>TYPE_UNKNOWN</code>
+     */
+    public int getType() {
+        return this.type;
+    }
+
+    /**
+     * Gets the IP address and Port carried by a peer message, the peer to probe
+     * of a preq message or the source of a fwrd or want message, packed as
+     * <code>ip &lt;&lt; 16 | port</code>.
+     *
+     * @return the packed address, or <code>-1</code> if the message is not a valid
+     *         peer, preq, fwrd or want message
+     */
+    public long getAddress() {
+        return this.address;
+    }
+
+    /**
+     * Gets the packed addresses carried by a peer list, the peers of the
+     * membership updates carried by a ping, pong or preq message, or the sources
+     * listed by a dgst message. The array is reused by the next message parsed.
+     *
+     * @return the packed addresses, of which the first
+     *         <code>getEntryCount()</code> are valid
+     */
+    public long[] getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Gets the age of the peer carried by a peer message.
+     *
+     * @return the number of milliseconds since the sender last heard from the
+     *         peer, or <code>-1</code> if the message does not give one
+     */
+    public int getAge() {
+        return this.age;
+    }
+
+    /**
+     * Gets the ages of the peers carried by a peer list. The array is reused by
+     * the next message parsed.
+     *
+     * @return the number of milliseconds since the sender last heard from each
+     *         peer, or <code>-1</code> for a peer without an age, one for each
+     *         of the first <code>getEntryCount()</code> entries
+     */
+    public int[] getAges() {
+        return this.ages;
+    }
+
+    /**
+     * Gets the number of peers carried by a peer list, the number of membership
+     * updates carried by a ping, pong or preq message, or the number of sources
+     * listed by a dgst message.
+     *
+     * @return the number of peers
+     */
+    public int getEntryCount() {
+        return this.entryCount;
+    }
+
+    /**
+     * Gets the states of the membership updates carried by a ping, pong or preq
+     * message. The array is reused by the next message parsed.
+     *
+     * @return the states, each one of <code>ALIVE</code>, <code>SUSPECT</code>
+     *         or <code>DEAD</code>
+     */
+    public byte[] getStates() {
+        return this.states;
+    }
+
+    /**
+     * Gets the incarnations of the membership updates carried by a ping, pong or
+     * preq message. The array is reused by the next message parsed.
+     *
+     * @return the incarnations
+     */
+    public int[] getIncarnations() {
+        return this.incarnations;
+    }
+
+    /**
+     * Gets the sequence number of a ping, pong or preq message.
+     *
+     * @return the sequence number
+     */
+    public int getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * Gets the operation of a view message.
+     *
+     * @return one of <code>JOIN</code>, <code>FORWARD_JOIN</code>,
+     *         <code>NEIGHBOR</code>, <code>ACCEPT</code>, <code>REJECT</code>,
+     *         <code>DISCONNECT</code>, <code>SHUFFLE</code> or
+     *         <code>SHUFFLE_REPLY</code>
+     */
+    public byte getOperation() {
+        return this.operation;
+    }
+
+    /**
+     * Gets the time to live of a view or fwrd message, which is the number of
+     * hops left in a random walk or the priority of a neighbor request, or the
+     * number of times a snippet may still be passed on.
+     *
+     * @return the time to live, or <code>0</code> if the message has none
+     */
+    public int getTtl() {
+        return this.ttl;
+    }
+
+    /**
+     * Gets the timestamps listed by an acks or want message.
+     *
+     * @return the timestamps, of which the first <code>getAckedCount()</code>
+     *         are valid
+     */
+    public int[] getAcked() {
+        return this.acked;
+    }
+
+    /**
+     * Gets the number of timestamps listed by an acks or want message.
+     *
+     * @return the number of timestamps
+     */
+    public int getAckedCount() {
+        return this.ackedCount;
+    }
+
+    /**
+     * Gets the total number of snippets of a dgst message.
+     *
+     * @return the number of snippets the sender has
+     */
+    public int getDigestCount() {
+        return this.digestCount;
+    }
+
+    /**
+     * Gets the total hash of a dgst message.
+     *
+     * @return the hash of all of the snippets the sender has
+     */
+    public int getDigestHash() {
+        return this.digestHash;
+    }
+
+    /**
+     * Gets the number of snippets of each source listed by a dgst message. The
+     * array is reused by the next message parsed.
+     *
+     * @return the counts, one for each of the first <code>getEntryCount()</code>
+     *         entries
+     */
+    public int[] getDigestCounts() {
+        return this.counts;
+    }
+
+    /**
+     * Gets the hash of the snippets of each source listed by a dgst message.
+     * The array is reused by the next message parsed.
+     *
+     * @return the hashes, one for each of the first <code>getEntryCount()</code>
+     *         entries
+     */
+    public int[] getDigestHashes() {
+        return this.hashes;
+    }
+
+    /**
+     * Gets the timestamp of a snip, frag or fwrd message, or the floor of a want
+     * message.
+     *
+     * @return the timestamp
+     */
+    public int getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Gets the position of a frag message within its snippet.
+     *
+     * @return the index of the fragment, starting at <code>0</code>
+     */
+    public int getFragmentIndex() {
+        return this.fragmentIndex;
+    }
+
+    /**
+     * Gets the number of fragments in the snippet of a frag message.
+     *
+     * @return the number of fragments
+     */
+    public int getFragmentCount() {
+        return this.fragmentCount;
+    }
+
+    /**
+     * Gets the index of the first byte of the content. For a snip message the
+     * content is the text after the timestamp.
+     *
+     * @return the index of the first byte of the content
+     */
+    public int getContentStart() {
+        return this.contentStart;
+    }
+
+    /**
+     * Gets the index after the last byte of the content.
+     *
+     * @return the index after the last byte of the content
+     */
+    public int getContentEnd() {
+        return this.contentEnd;
+    }
+
+    /**
+     * Decodes the content of the message this MessageView object is pointing at.
+     *
+     * @return a String containing the content
+     */
+    public String getContent() {
+        return new String(data, contentStart, contentEnd - contentStart);
+    }
+
+    /**
+     * Gets the type of a message from its first four bytes without decoding the
+     * message into a String. The message type is not case sensitive.
+     *
+     * @param data   the buffer containing the message
+     * @param offset the index of the first byte of the message
+     * @param length the number of bytes in the message
+     * @return one of <code>TYPE_PEER</code>, <code>TYPE_SNIP</code>,
+     *         <code>TYPE_STOP</code>, <code>TYPE_FRAG</code>,
+     *         <code>TYPE_PULL</code>, <code>TYPE_PEERS</code>,
+     *         <code>TYPE_PING</code>, <code>TYPE_PONG</code>,
+     *         <code>TYPE_PREQ</code>, <code>TYPE_VIEW</code>,
+     *         <code>TYPE_ACKS</code>, <code>TYPE_FWRD</code>,
+     *         <code>TYPE_DGST</code>, <code>TYPE_WANT</code> or
+     *         <code>TYPE_UNKNOWN</code>
+     */
+    static int messageType(byte[] data, int offset, int length) {
+        if (length < 4)
+            return TYPE_UNKNOWN;
+        // setting bit 5 lower-cases ASCII letters
+        int type = ((data[offset] | 0x20) & 0xff) << 24 | ((data[offset + 1] | 0x20) & 0xff) << 16
+                | ((data[offset + 2] | 0x20) & 0xff) << 8 | ((data[offset + 3] | 0x20) & 0xff);
+        switch (type) {
+            case PEER:
+                return TYPE_PEER;
+            case SNIP:
+                return TYPE_SNIP;
+            case STOP:
+                return TYPE_STOP;
+            case FRAG:
+                return TYPE_FRAG;
+            case PULL:
+                return TYPE_PULL;
+            case LIST:
+            case BULK:
+                return TYPE_PEERS;
+            case PING:
+                return TYPE_PING;
+            case PONG:
+                return TYPE_PONG;
+            case PREQ:
+                return TYPE_PREQ;
+            case VIEW:
+                return TYPE_VIEW;
+            case ACKS:
+                return TYPE_ACKS;
+            case FWRD:
+                return TYPE_FWRD;
+            case DGST:
+                return TYPE_DGST;
+            case WANT:
+                return TYPE_WANT;
+            default:
+                return TYPE_UNKNOWN;
+        }
+    }
+
+    /**
+     * Parses a dotted-quad IPv4 address and Port in the form
+     * <code>a.b.c.d:port</code> from the given range of a buffer.
+     *
+     * @param data  the buffer containing the address
+     * @param start the index of the first byte of the address
+     * @param end   the index after the last byte of the Port
+     * @return the address packed as <code>ip &lt;&lt; 16 | port</code>, or
+     *         <code>-1</code> if the range is not a valid address
+     */
+    static long parseAddress(byte[] data, int start, int end) {
+        int colon = start;
+        while (colon < end && data[colon] != ':')
+            colon++;
+        long ip = parseIP(data, start, colon);
+        int port = parsePort(data, colon + 1, end);
+        if (ip < 0 || port < 0)
+            return -1;
+        return pack((int) ip, port);
+    }
+
+    /**
+     * Parses a dotted-quad IPv4 address from the given range of a buffer.
+     *
+     * @param data  the buffer containing the address
+     * @param start the index of the first byte of the address
+     * @param end   the index after the last byte of the address
+     * @return the IPv4 address as an unsigned big-endian value, or <code>-1</code>
+     *         if the range is not a valid address
+     */
+    static long parseIP(byte[] data, int start, int end) {
+        long ip = 0;
+        int i = start;
+        for (int octet = 0; octet < 4; octet++) {
+            int value = 0;
+            int digits = 0;
+            while (i < end && data[i] >= '0' && data[i] <= '9' && digits < 3) {
+                value = value * 10 + (data[i] - '0');
+                digits++;
+                i++;
+            }
+            if (digits == 0 || value > 255)
+                return -1;
+            ip = (ip << 8) | value;
+            // octets are separated by dots and the last one ends the range
+            if (octet < 3) {
+                if (i == end || data[i] != '.')
+                    return -1;
+                i++;
+            }
+        }
+        return i == end ? ip : -1;
+    }
+
+    /**
+     * Parses a decimal Port number from the given range of a buffer.
+     *
+     * @param data  the buffer containing the Port
+     * @param start the index of the first digit
+     * @param end   the index after the last digit
+     * @return the Port, or <code>-1</code> if the range is not a valid Port, which
+     *         includes Port 0 since nothing can be sent to it
+     */
+    static int parsePort(byte[] data, int start, int end) {
+        if (start >= end || end - start > 5)
+            return -1;
+        int port = 0;
+        for (int i = start; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            port = port * 10 + digit;
+        }
+        return port == 0 || port > 65535 ? -1 : port;
+    }
+
+    /**
+     * Writes the start of a peer list into a buffer.
+     *
+     * @param buf    the buffer to write into
+     * @param binary <code>true</code> to start a bulk message instead of a text
+     *               list
+     * @return the index after the message type
+     */
+    static int beginPeers(byte[] buf, boolean binary) {
+        byte[] type = binary ? BULK_TYPE : LIST_TYPE;
+        System.arraycopy(type, 0, buf, 0, type.length);
+        return type.length;
+    }
+
+    /**
+     * Appends one peer to a peer list being written into a buffer.
+     *
+     * @param buf      the buffer holding the peer list
+     * @param position the index after the last peer written
+     * @param address  the packed address of the peer
+     * @param age      the number of milliseconds since the peer was last heard
+     *                 from, or <code>-1</code> to leave it out
+     * @param binary   <code>true</code> if the peer list is a bulk message
+     * @return the index after the peer, or <code>-1</code> if the peer does not
+     *         fit in the buffer
+     */
+    static int appendEntry(byte[] buf, int position, long address, int age, boolean binary) {
+        int ip = ipOf(address);
+        int port = portOf(address);
+        if (binary) {
+            if (position + BULK_ENTRY > buf.length)
+                return -1;
+            buf[position] = (byte) (ip >>> 24);
+            buf[position + 1] = (byte) (ip >>> 16);
+            buf[position + 2] = (byte) (ip >>> 8);
+            buf[position + 3] = (byte) ip;
+            buf[position + 4] = (byte) (port >>> 8);
+            buf[position + 5] = (byte) port;
+            buf[position + 6] = (byte) (age >>> 24);
+            buf[position + 7] = (byte) (age >>> 16);
+            buf[position + 8] = (byte) (age >>> 8);
+            buf[position + 9] = (byte) age;
+            return position + BULK_ENTRY;
+        }
+        // a space, four octets with their separators, a Port and an age is at most 33 bytes
+        if (position + 33 > buf.length)
+            return -1;
+        buf[position++] = ' ';
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            position = writeDecimal(buf, position, (ip >>> shift) & 0xff);
+            buf[position++] = (byte) (shift == 0 ? ':' : '.');
+        }
+        position = writeDecimal(buf, position, port);
+        if (age < 0)
+            return position;
+        buf[position++] = '/';
+        return writeDecimal(buf, position, age);
+    }
+
+    /**
+     * Writes a non-negative decimal number into a buffer.
+     *
+     * @param buf      the buffer to write into
+     * @param position the index to write the first digit at
+     * @param value    the number
+     * @return the index after the last digit
+     */
+    private static int writeDecimal(byte[] buf, int position, int value) {
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10)
+            digits++;
+        for (int i = position + digits - 1; i >= position; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + digits;
+    }
+
+    /**
+     * Packs an IPv4 address and Port into the low 48 bits of a long.
+     *
+     * @param ip   the IPv4 address as a big-endian int
+     * @param port the Port
+     * @return the packed address
+     */
+    static long pack(int ip, int port) {
+        return ((ip & 0xffffffffL) << 16) | (port & 0xffff);
+    }
+
+    /**
+     * Packs the IP address and Port a message was sent from into the low 48 bits
+     * of a long.
+     *
+     * @param address the IPv4 address the message was sent from
+     * @param port    the Port the message was sent from
+     * @return the packed address
+     * @throws IllegalArgumentException if the address is not an IPv4 address
+     */
+    static long pack(InetAddress address, int port) {
+        if (!(address instanceof Inet4Address))
+            throw new IllegalArgumentException("Not an IPv4 address: " + address);
+        byte[] b = address.getAddress();
+        int ip = (b[0] & 0xff) << 24 | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8 | (b[3] & 0xff);
+        return pack(ip, port);
+    }
+
+    /**
+     * Gets the IPv4 address of a packed address.
+     *
+     * @param address the packed address
+     * @return the IPv4 address as a big-endian int
+     */
+    static int ipOf(long address) {
+        return (int) (address >>> 16);
+    }
+
+    /**
+     * Gets the Port of a packed address.
+     *
+     * @param address the packed address
+     * @return the Port
+     */
+    static int portOf(long address) {
+        return (int) (address & 0xffff);
+    }
+
+    /**
+     * Formats an IPv4 address in dotted-quad notation.
+     *
+     * @param ip the IPv4 address as a big-endian int
+     * @return a String containing the dotted-quad address
+     */
+    static String formatIP(int ip) {
+        StringBuilder sb = new StringBuilder(15);
+        sb.append(ip >>> 24).append('.');
+        sb.append((ip >>> 16) & 0xff).append('.');
+        sb.append((ip >>> 8) & 0xff).append('.');
+        sb.append(ip & 0xff);
+        return sb.toString();
+    }
+
+    /**
+     * Gets the index of the first non-whitespace byte in the given range of a
+     * buffer.
+     *
+     * @param data  the buffer
+     * @param start the index to start at
+     * @param end   the index after the last byte of the range
+     * @return the index of the first non-whitespace byte, or <code>end</code>
+     */
+    static int skipWhitespace(byte[] data, int start, int end) {
+        while (start < end && data[start] >= 0 && data[start] <= ' ')
+            start++;
+        return start;
+    }
+
+    /**
+     * Gets the index after the last non-whitespace byte in the given range of a
+     * buffer.
+     *
+     * @param data  the buffer
+     * @param start the index of the first byte of the range
+     * @param end   the index after the last byte of the range
+     * @return the index after the last non-whitespace byte, or <code>start</code>
+     */
+    static int trimWhitespace(byte[] data, int start, int end) {
+        while (end > start && data[end - 1] >= 0 && data[end - 1] <= ' ')
+            end--;
+        return end;
+    }
+}
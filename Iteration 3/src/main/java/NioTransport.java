@@ -0,0 +1,234 @@
+package main.java;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NioTransport is a class that sends and receives all UDP messages for a Peer
+ * object on a single non-blocking DatagramChannel.
+ * The NioTransport class implements the Runnable interface.
+ * One event-loop thread waits on a Selector, drains inbound messages into a
+ * MessageHandler and flushes the messages that other threads have queued for
+ * sending. Direct ByteBuffers are used for both directions.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class NioTransport implements Runnable {
+    // how long the event loop waits on the Selector before checking if it is done
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+    // the largest payload a UDP datagram can carry
+    private static final int MAX_DATAGRAM = 65507;
+    // the most messages drained into one batch so that sends are not starved
+    private static final int MAX_BATCH = 256;
+
+    private DatagramChannel channel;
+    private Selector selector;
+    private SelectionKey key;
+    private MessageHandler handler;
+
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(1024);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+    private final byte[] buf = new byte[1024];
+
+    private final ConcurrentLinkedQueue<Outbound> outbound = new ConcurrentLinkedQueue<Outbound>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Outbound is a message waiting in the send queue of a NioTransport object.
+     */
+    private static class Outbound {
+        private final byte[] data;
+        private final int length;
+        private final InetSocketAddress target;
+
+        Outbound(byte[] data, int length, InetSocketAddress target) {
+            this.data = data;
+            this.length = length;
+            this.target = target;
+        }
+    }
+
+    /**
+     * Class constructor that opens a non-blocking DatagramChannel bound to a
+     * randomly assigned Port.
+     *
+     * @throws IOException if the channel or Selector could not be opened
+     */
+    NioTransport() throws IOException {
+        this.channel = DatagramChannel.open();
+        this.channel.bind(null);
+        this.channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.key = this.channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Sets the MessageHandler that handles the messages received by this
+     * NioTransport object.
+     *
+     * @param handler the MessageHandler for received messages
+     */
+    void setHandler(MessageHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Gets the Port that this NioTransport object's channel is bound to.
+     *
+     * @return the local Port of the channel
+     */
+    public int getLocalPort() {
+        return this.channel.socket().getLocalPort();
+    }
+
+    /**
+     * Queues a message to be sent by the event-loop thread. This method can be
+     * called from any thread.
+     *
+     * @param data    the buffer containing the message, which must not be changed
+     *                after it is queued
+     * @param length  the number of bytes in the message
+     * @param address the IP address to send the message to
+     * @param port    the Port to send the message to
+     */
+    public void send(byte[] data, int length, InetAddress address, int port) {
+        send(data, length, new InetSocketAddress(address, port));
+    }
+
+    /**
+     * Queues a message to be sent to a resolved socket address by the event-loop
+     * thread. This method can be called from any thread.
+     *
+     * @param data   the buffer containing the message, which must not be changed
+     *               after it is queued
+     * @param length the number of bytes in the message
+     * @param target the socket address to send the message to
+     */
+    public void send(byte[] data, int length, InetSocketAddress target) {
+        if (length > MAX_DATAGRAM)
+            throw new IllegalArgumentException("Message of " + length + " bytes is too large for a datagram");
+        outbound.add(new Outbound(data, length, target));
+        // only one wakeup is needed no matter how many messages are queued
+        if (wakeupPending.compareAndSet(false, true))
+            selector.wakeup();
+    }
+
+    /**
+     * Runs the event loop until the MessageHandler is done, then flushes any
+     * remaining queued messages.
+     */
+    @Override
+    public void run() {
+        while (!handler.isDone()) {
+            try {
+                key.interestOps(outbound.isEmpty() ? SelectionKey.OP_READ
+                        : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                wakeupPending.set(false);
+                selector.selectedKeys().clear();
+
+                receive();
+                flush();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        flush();
+    }
+
+    /**
+     * Receives every message waiting on the channel and passes each one to the
+     * MessageHandler, or to its MessagePipeline if there is one. If
+     * <code>peer.batch</code> is set, the messages are drained in batches of up to
+     * <code>MAX_BATCH</code> that the MessageHandler applies to the Peer object
+     * with one bulk update each.
+     *
+     * @throws IOException if the channel fails
+     */
+    private void receive() throws IOException {
+        InetSocketAddress from;
+        int received = 0;
+        if (Peer.BATCH_RECEIVE)
+            handler.beginBatch();
+        try {
+            while (true) {
+                if (Peer.BATCH_RECEIVE && received == MAX_BATCH) {
+                    handler.endBatch();
+                    handler.beginBatch();
+                    received = 0;
+                }
+                receiveBuffer.clear();
+                from = (InetSocketAddress) channel.receive(receiveBuffer);
+                if (from == null)
+                    return;
+                receiveBuffer.flip();
+                int length = receiveBuffer.remaining();
+                receiveBuffer.get(buf, 0, length);
+                handler.dispatch(buf, 0, length, from.getAddress(), from.getPort());
+                received++;
+            }
+        } finally {
+            if (Peer.BATCH_RECEIVE)
+                handler.endBatch();
+        }
+    }
+
+    /**
+     * Sends queued messages until the queue is empty or the channel's send buffer
+     * is full. A message the channel fails to send is dropped and counted, so
+     * that one bad target does not stop the messages queued behind it.
+     */
+    private void flush() {
+        Outbound o;
+        while ((o = outbound.peek()) != null) {
+            sendBuffer.clear();
+            sendBuffer.put(o.data, 0, o.length);
+            sendBuffer.flip();
+            int sent;
+            try {
+                sent = channel.send(sendBuffer, o.target);
+            } catch (IOException | RuntimeException e) {
+                outbound.poll();
+                dropped.incrementAndGet();
+                continue;
+            }
+            if (sent == 0)
+                return; // the send buffer is full, wait for OP_WRITE
+            outbound.poll();
+        }
+    }
+
+    /**
+     * Gets the number of messages dropped because the channel failed to send
+     * them.
+     *
+     * @return the number of dropped messages
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Closes this NioTransport object's channel and Selector.
+     */
+    public void close() {
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package main.java;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * PartialView is a class that keeps a Peer object in a HyParView-style overlay,
+ * so that it only needs to know and contact a few peers however large the
+ * network is.
+ * The active view is a small symmetric set of neighbours that snippets are sent
+ * to; the passive view is a larger set of peers kept as replacements. A new peer
+ * joins through one contact, which makes it a neighbour and starts random walks
+ * that make it a neighbour of, or a replacement for, a few more peers. Every
+ * round each neighbour is told that it is still one, a neighbour that is no
+ * longer alive is replaced from the passive view, and every few rounds a
+ * random walk shuffles a sample of both views with a distant peer so that the
+ * passive view stays fresh.
+ * Both views have a fixed size, so the memory and the messages of a round are
+ * the same however many peers there are. All state is guarded by the lock of
+ * the PartialView.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class PartialView {
+    // the number of neighbours, which should be about log(n) + 1
+    static final int ACTIVE_SIZE = Integer.getInteger("peer.active", 5);
+    // the number of replacements kept for the neighbours
+    static final int PASSIVE_SIZE = Integer.getInteger("peer.passive", 30);
+    // the length of the random walk that a join starts
+    static final int ACTIVE_WALK = 6;
+    // the hop of the join walk at which the new peer is added to the passive view
+    static final int PASSIVE_WALK = 3;
+    // the length of a round, in which neighbours are kept alive and replaced
+    static final long PERIOD_MILLIS = 2000;
+    // the number of rounds between shuffles
+    static final int SHUFFLE_ROUNDS = 5;
+    // the number of neighbours and of replacements sent in a shuffle
+    static final int SHUFFLE_ACTIVE = 3;
+    static final int SHUFFLE_PASSIVE = 4;
+
+    private final Peer p;
+    private final long self;
+    private final Random random = new Random();
+
+    private final long[] active = new long[ACTIVE_SIZE];
+    private int activeSize = 0;
+    private final long[] passive = new long[PASSIVE_SIZE];
+    private int passiveSize = 0;
+    // the peer last asked to become a neighbour, which is added when it accepts
+    private long pending = 0;
+    private int rounds = 0;
+
+    /**
+     * Class constructor that specifies the Peer object kept in the overlay.
+     *
+     * @param p the Peer object kept in the overlay
+     */
+    PartialView(Peer p) {
+        this.p = p;
+        this.self = p.getLocation().getAddress();
+    }
+
+    /**
+     * Runs the rounds of this PartialView object on a RoundScheduler until it is
+     * shut down.
+     *
+     * @param scheduler the RoundScheduler that runs the rounds
+     */
+    public void start(RoundScheduler scheduler) {
+        scheduler.every(PERIOD_MILLIS, Peer.ROUND_JITTER, this::round);
+    }
+
+    /**
+     * Joins the overlay through a random peer of the passive view, such as one
+     * of the peers given by the registry.
+     */
+    public synchronized void join() {
+        if (passiveSize == 0)
+            return;
+        pending = passive[random.nextInt(passiveSize)];
+        send(MessageView.JOIN, -1, pending);
+    }
+
+    /**
+     * Runs one round: drops neighbours that are no longer alive, asks a
+     * replacement to become a neighbour if there is room, tells every neighbour
+     * that it still is one and, every <code>SHUFFLE_ROUNDS</code> rounds, starts
+     * a shuffle.
+     */
+    private synchronized void round() {
+        for (int a = activeSize - 1; a >= 0; a--) {
+            if (!p.isLive(active[a]))
+                removeActive(a);
+        }
+        if (activeSize < ACTIVE_SIZE && passiveSize > 0) {
+            // a peer without neighbours must be accepted, or it would be cut off
+            pending = passive[random.nextInt(passiveSize)];
+            send(MessageView.NEIGHBOR, activeSize == 0 ? 1 : 0, pending);
+        }
+        for (int a = 0; a < activeSize; a++) {
+            send(MessageView.ACCEPT, -1, active[a]);
+        }
+        if (++rounds % SHUFFLE_ROUNDS == 0 && activeSize > 0) {
+            long[] entries = new long[1 + SHUFFLE_ACTIVE + SHUFFLE_PASSIVE];
+            entries[0] = self;
+            int n = 1 + sample(active, activeSize, entries, 1, SHUFFLE_ACTIVE);
+            n += sample(passive, passiveSize, entries, n, SHUFFLE_PASSIVE);
+            send(MessageView.SHUFFLE, ACTIVE_WALK, active[random.nextInt(activeSize)], entries, n);
+        }
+    }
+
+    /**
+     * Handles a view message.
+     *
+     * @param view the MessageView pointing at the view message
+     * @param from the packed address of the peer that sent it
+     */
+    public synchronized void onMessage(MessageView view, long from) {
+        if (from == self)
+            return;
+        switch (view.getOperation()) {
+            case MessageView.JOIN:
+                addActive(from);
+                send(MessageView.ACCEPT, -1, from);
+                for (int a = 0; a < activeSize; a++) {
+                    if (active[a] != from)
+                        send(MessageView.FORWARD_JOIN, ACTIVE_WALK, active[a], single(from), 1);
+                }
+                break;
+            case MessageView.FORWARD_JOIN:
+                forwardJoin(view.getEntries()[0], view.getTtl(), from);
+                break;
+            case MessageView.NEIGHBOR:
+                if (indexOf(active, activeSize, from) >= 0 || view.getTtl() > 0 || activeSize < ACTIVE_SIZE) {
+                    addActive(from);
+                    send(MessageView.ACCEPT, -1, from);
+                } else {
+                    send(MessageView.REJECT, -1, from);
+                }
+                break;
+            case MessageView.ACCEPT:
+                if (indexOf(active, activeSize, from) >= 0)
+                    break;
+                // a peer that is not wanted as a neighbour is told so, which keeps both views symmetric
+                if (from == pending || activeSize < ACTIVE_SIZE) {
+                    pending = 0;
+                    addActive(from);
+                } else {
+                    send(MessageView.DISCONNECT, -1, from);
+                }
+                break;
+            case MessageView.REJECT:
+                if (from == pending)
+                    pending = 0;
+                break;
+            case MessageView.DISCONNECT:
+                int a = indexOf(active, activeSize, from);
+                if (a >= 0) {
+                    removeActive(a);
+                    addPassive(from);
+                }
+                break;
+            case MessageView.SHUFFLE:
+                shuffle(view, from);
+                break;
+            case MessageView.SHUFFLE_REPLY:
+                for (int b = 0; b < view.getEntryCount(); b++) {
+                    addPassive(view.getEntries()[b]);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Moves a join walk one hop further, or ends it by making the new peer a
+     * neighbour.
+     *
+     * @param joining the packed address of the new peer
+     * @param ttl     the number of hops left
+     * @param from    the packed address of the peer the walk came from
+     */
+    private void forwardJoin(long joining, int ttl, long from) {
+        if (joining == self)
+            return;
+        if (ttl == 0 || activeSize <= 1) {
+            if (addActive(joining))
+                send(MessageView.ACCEPT, -1, joining);
+            return;
+        }
+        if (ttl == PASSIVE_WALK)
+            addPassive(joining);
+        long next = randomActive(from, joining);
+        if (next == 0) {
+            if (addActive(joining))
+                send(MessageView.ACCEPT, -1, joining);
+        } else {
+            send(MessageView.FORWARD_JOIN, ttl - 1, next, single(joining), 1);
+        }
+    }
+
+    /**
+     * Moves a shuffle walk one hop further, or ends it by answering the peer that
+     * started it with a sample of the passive view and keeping the peers it sent.
+     *
+     * @param view the MessageView pointing at the shuffle message
+     * @param from the packed address of the peer the walk came from
+     */
+    private void shuffle(MessageView view, long from) {
+        long[] entries = view.getEntries();
+        int count = view.getEntryCount();
+        long origin = entries[0];
+        if (origin == self)
+            return;
+        long next = view.getTtl() > 0 && activeSize > 1 ? randomActive(from, origin) : 0;
+        if (next != 0) {
+            send(MessageView.SHUFFLE, view.getTtl() - 1, next, entries, count);
+            return;
+        }
+        long[] reply = new long[count];
+        int n = sample(passive, passiveSize, reply, 0, count);
+        send(MessageView.SHUFFLE_REPLY, -1, origin, reply, n);
+        for (int a = 0; a < count; a++) {
+            addPassive(entries[a]);
+        }
+    }
+
+    /**
+     * Makes a peer a neighbour, first dropping a random neighbour to the passive
+     * view if the active view is full.
+     *
+     * @param address the packed address of the peer
+     * @return <code>true</code> if the peer was not already a neighbour
+     */
+    private boolean addActive(long address) {
+        if (address == self || indexOf(active, activeSize, address) >= 0)
+            return false;
+        if (activeSize == ACTIVE_SIZE) {
+            int dropped = random.nextInt(activeSize);
+            long d = active[dropped];
+            removeActive(dropped);
+            send(MessageView.DISCONNECT, -1, d);
+            addPassive(d);
+        }
+        int b = indexOf(passive, passiveSize, address);
+        if (b >= 0)
+            passive[b] = passive[--passiveSize];
+        active[activeSize++] = address;
+        return true;
+    }
+
+    /**
+     * Removes a neighbour from the active view.
+     *
+     * @param index the index of the neighbour in the active view
+     */
+    private void removeActive(int index) {
+        active[index] = active[--activeSize];
+    }
+
+    /**
+     * Adds a peer to the passive view if it is not in either view, replacing a
+     * random peer if the passive view is full.
+     *
+     * @param address the packed address of the peer
+     */
+    public synchronized void addPassive(long address) {
+        if (address <= 0 || address == self || indexOf(active, activeSize, address) >= 0
+                || indexOf(passive, passiveSize, address) >= 0)
+            return;
+        if (passiveSize == PASSIVE_SIZE) {
+            passive[random.nextInt(passiveSize)] = address;
+        } else {
+            passive[passiveSize++] = address;
+        }
+    }
+
+    /**
+     * Copies the active view into an array.
+     *
+     * @param into the array to copy the neighbours into
+     * @return the number of neighbours copied
+     */
+    public synchronized int getActive(long[] into) {
+        int n = Math.min(activeSize, into.length);
+        System.arraycopy(active, 0, into, 0, n);
+        return n;
+    }
+
+    /**
+     * Gets the number of neighbours in the active view.
+     *
+     * @return the size of the active view
+     */
+    public synchronized int getActiveSize() {
+        return this.activeSize;
+    }
+
+    /**
+     * Gets the number of replacements in the passive view.
+     *
+     * @return the size of the passive view
+     */
+    public synchronized int getPassiveSize() {
+        return this.passiveSize;
+    }
+
+    /**
+     * Picks a random neighbour other than two given peers.
+     *
+     * @param not a peer not to pick
+     * @param nor another peer not to pick
+     * @return the packed address of the neighbour, or <code>0</code> if there is
+     *         none
+     */
+    private long randomActive(long not, long nor) {
+        int start = activeSize == 0 ? 0 : random.nextInt(activeSize);
+        for (int a = 0; a < activeSize; a++) {
+            long candidate = active[(start + a) % activeSize];
+            if (candidate != not && candidate != nor)
+                return candidate;
+        }
+        return 0;
+    }
+
+    /**
+     * Copies up to a number of random peers of a view into an array.
+     *
+     * @param from     the view
+     * @param size     the number of peers in the view
+     * @param into     the array to copy the peers into
+     * @param position the index of <code>into</code> to copy the first peer to
+     * @param count    the most peers to copy
+     * @return the number of peers copied
+     */
+    private int sample(long[] from, int size, long[] into, int position, int count) {
+        int n = Math.min(Math.min(size, count), into.length - position);
+        int start = size == 0 ? 0 : random.nextInt(size);
+        for (int a = 0; a < n; a++) {
+            into[position + a] = from[(start + a) % size];
+        }
+        return n;
+    }
+
+    /**
+     * Sends a view message without peers.
+     *
+     * @param operation the operation of the message
+     * @param ttl       the time to live, or <code>-1</code> for none
+     * @param to        the packed address of the peer to send it to
+     */
+    private void send(byte operation, int ttl, long to) {
+        send(operation, ttl, to, null, 0);
+    }
+
+    /**
+     * Sends a view message, writing its peers as in a text peer list.
+     *
+     * @param operation the operation of the message
+     * @param ttl       the time to live, or <code>-1</code> for none
+     * @param to        the packed address of the peer to send it to
+     * @param entries   the packed addresses of the peers to send
+     * @param count     the number of peers to send
+     */
+    private void send(byte operation, int ttl, long to, long[] entries, int count) {
+        StringBuilder sb = new StringBuilder("view");
+        sb.append((char) operation);
+        if (ttl >= 0)
+            sb.append(ttl);
+        for (int a = 0; a < count; a++) {
+            PeerLocation e = PeerLocation.of(entries[a]);
+            sb.append(' ').append(e.getIP()).append(':').append(e.getPort());
+        }
+        byte[] buf = sb.toString().getBytes();
+        try {
+            p.send(buf, buf.length, PeerLocation.of(to), SendScheduler.MEMBERSHIP);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Wraps one packed address in an array.
+     *
+     * @param address the packed address
+     * @return an array holding the address
+     */
+    private static long[] single(long address) {
+        return new long[] { address };
+    }
+
+    /**
+     * Finds a peer in a view.
+     *
+     * @param view    the view
+     * @param size    the number of peers in the view
+     * @param address the packed address of the peer
+     * @return the index of the peer, or <code>-1</code> if it is not in the view
+     */
+    private static int indexOf(long[] view, int size, long address) {
+        for (int a = 0; a < size; a++) {
+            if (view[a] == address)
+                return a;
+        }
+        return -1;
+    }
+}
@@ -9,20 +9,23 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.net.InetAddress;
 import java.net.Socket;
 import java.net.URL;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 import java.util.Scanner;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Peer is a class that represents a peer process in a peer-to-peer distributed
@@ -44,23 +47,133 @@ import java.util.concurrent.TimeUnit;
  */
 public class Peer {
 
-    private ConcurrentHashMap<PeerLocation, Date> peers = new ConcurrentHashMap<PeerLocation, Date>();
+    // peers evicted from the dead peers, which are only kept to be reported
+    private final AddressArchive evicted = new AddressArchive(MAX_EVICTED);
+    // peers that timed out or were evicted, with the time they were last heard from
+    private PeerTable dead = new PeerTable(64, MAX_PEERS, (address, lastSeen) -> evicted.add(address));
+    private PeerTable peers = new PeerTable(64, MAX_PEERS, (address, lastSeen) -> {
+        dead.putIfAbsent(address, lastSeen);
+        if (this.detector != null)
+            this.detector.forget();
+    });
     private ConcurrentHashMap<PeerLocation, Vector<PeerLocation>> sourcePeers = new ConcurrentHashMap<PeerLocation, Vector<PeerLocation>>();
     private ConcurrentHashMap<PeerLocation, Date> sources = new ConcurrentHashMap<PeerLocation, Date>();
-    private Vector<String> peersSent = new Vector<String>();
-    private Vector<String> peersReceived = new Vector<String>();
+    private ReceiptLog peersSent = new ReceiptLog(MAX_SENT);
+    private ReceiptLog peersReceived = new ReceiptLog(MAX_RECEIPTS);
+    private AckLog acksReceived = new AckLog(MAX_ACKS);
     private PriorityBlockingQueue<Snippet> snippetQueue = new PriorityBlockingQueue<Snippet>();
     private PriorityBlockingQueue<Snippet> snippetsInSystem = new PriorityBlockingQueue<Snippet>();
 
     private DatagramSocket udpSocket;
+    private NioTransport transport;
+    private ShardedReceiver receivers;
     private PeerLocation location;
 
-    private boolean stop = false;
-    private int timestamp = 0;
+    // how long a peer is considered alive after it was last heard from, unless it is gossiped
+    static final long PEER_TIMEOUT_MILLIS = 10000;
+    // how often timed out peers are moved to the dead peers
+    static final long EXPIRY_TICK_MILLIS = 1000;
+
+    // the most a gossip round is delayed past its start, as a fraction of a round
+    static final double ROUND_JITTER = 0.1;
+    // how often standard input is checked for a snippet to send
+    static final long INPUT_POLL_MILLIS = 500;
+    // how often received snippets are displayed
+    static final long DISPLAY_MILLIS = 100;
+
+    // the time each known peer times out, one bucket per tick over 16 seconds
+    private final TimerWheel expiry = new TimerWheel(16, EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+
+    private volatile boolean stop = false;
+    private volatile long lingerDeadline = Long.MAX_VALUE;
+    private final AtomicInteger timestamp = new AtomicInteger(0);
 
     public final String TEAMNAME = "Rohan Amjad 30062188";
 
+    // run UDP on a non-blocking DatagramChannel event loop instead of a blocking socket
+    static final boolean USE_NIO = Boolean.getBoolean("peer.nio");
+    // drain all pending datagrams before updating peers and snippets in bulk (NIO only)
+    static final boolean BATCH_RECEIVE = Boolean.getBoolean("peer.batch");
+    // handle received messages on this many worker threads, 0 handles them on the receive thread
+    static final int WORKERS = Integer.getInteger("peer.workers", 0);
+    // receive on this many SO_REUSEPORT sockets sharing one Port (blocking transport only)
+    static final int RECEIVERS = Integer.getInteger("peer.receivers", 1);
+    // the most peers received over UDP kept for the report, after which the oldest are overwritten
+    static final int MAX_RECEIPTS = Integer.getInteger("peer.receipts", 65536);
+    // the most peers sent over UDP kept for the report, after which the oldest are overwritten
+    static final int MAX_SENT = Integer.getInteger("peer.sent", 65536);
+    // the most snippet acks received kept for the report, after which the oldest are overwritten
+    static final int MAX_ACKS = Integer.getInteger("peer.acks", 65536);
+    // gossip with this many random live peers each round, 0 broadcasts every peer to every peer
+    static final int FANOUT = Integer.getInteger("peer.fanout", 0);
+    // gossip peers packed into peer lists instead of one peer message per peer
+    static final boolean PEER_LISTS = Boolean.getBoolean("peer.lists");
+    // encode peer lists in binary instead of text
+    static final boolean BINARY_PEER_LISTS = Boolean.getBoolean("peer.binary");
+    // decide which peers are alive with the SWIM failure detector instead of a silence timeout
+    static final boolean SWIM = Boolean.getBoolean("peer.swim");
+    // the most peers kept alive, and the most kept dead, before the longest silent are evicted
+    static final int MAX_PEERS = Integer.getInteger("peer.capacity", 4096);
+    // the most evicted peers kept for the report, after which the oldest are forgotten
+    static final int MAX_EVICTED = Integer.getInteger("peer.evicted", 65536);
+    // keep a small active and passive view of the peers instead of knowing them all
+    static final boolean HYPARVIEW = Boolean.getBoolean("peer.hyparview");
+    // how long a peer is considered alive in gossip mode, long enough for gossip to pass on that it was heard from
+    static final long GOSSIP_TIMEOUT_MILLIS = Integer.getInteger("peer.gossiptimeout", 60000);
+    // how long a peer is considered alive after it was last heard from, directly or through gossip
+    static final long TIMEOUT_MILLIS = FANOUT > 0 && !HYPARVIEW ? GOSSIP_TIMEOUT_MILLIS : PEER_TIMEOUT_MILLIS;
+    // how often a peer that is still heard from is gossiped again, 0 gossips each peer once
+    static final long REFRESH_MILLIS = FANOUT > 0 && !HYPARVIEW && !SWIM ? TIMEOUT_MILLIS / 4 : 0;
+    // pace outbound messages to this many a second, 0 for no limit
+    static final int SEND_RATE = Integer.getInteger("peer.sendrate", 0);
+    // pace outbound messages to this many bytes a second, 0 for no limit
+    static final int SEND_BYTES = Integer.getInteger("peer.sendbytes", 0);
+    // the most messages waiting in each lane of the SendScheduler
+    static final int SEND_QUEUE = Integer.getInteger("peer.sendqueue", 4096);
+    // the most bytes of sent snippets kept to be sent again until they are acknowledged, 0 sends them once
+    static final int RETRANSMIT_BYTES = Integer.getInteger("peer.retransmit", 0);
+    // the number of recent snippets remembered exactly to drop duplicates
+    static final int DEDUP_CAPACITY = Integer.getInteger("peer.dedup", 65536);
+    // remember older snippets in a Bloom filter of two 1 MB generations
+    static final boolean DEDUP_BLOOM = Boolean.getBoolean("peer.bloom");
+    // the most registry sources kept, after which the oldest is dropped
+    static final int MAX_SOURCES = Integer.getInteger("peer.sources", 16);
+    // send and forward each snippet to this many random live peers, 0 sends it to every peer
+    static final int FORWARD_FANOUT = Integer.getInteger("peer.forward", 0);
+    // the number of times a snippet is forwarded before it is dropped
+    static final int FORWARD_TTL = Integer.getInteger("peer.ttl", 6);
+    // compare snippet histories with a random peer this often to repair lost snippets, 0 never does
+    static final int SYNC_MILLIS = Integer.getInteger("peer.sync", 0);
+    // keep snippets in a memory-mapped log in this directory instead of on the heap, unset keeps them on the heap
+    static final String LOG_DIR = System.getProperty("peer.log");
+    // the size of a segment of the snippet log
+    static final int LOG_SEGMENT_BYTES = Integer.getInteger("peer.segment", 4 * 1024 * 1024);
+    // the most segments of the snippet log kept before the oldest is deleted
+    static final int LOG_SEGMENTS = Integer.getInteger("peer.segments", 16);
+    // the number of recent snippets the snippet log also keeps on the heap
+    static final int HOT_SNIPPETS = Integer.getInteger("peer.hot", 1024);
+
+    private MessagePipeline pipeline;
+    private FailureDetector detector;
+    private SendScheduler sender;
+    private PartialView overlay;
+    private final AckBatcher acks = new AckBatcher(this);
+    private final SnippetDedup dedup = new SnippetDedup(DEDUP_CAPACITY, DEDUP_BLOOM ? 8 * 1024 * 1024 : 0);
+    private RetransmitBuffer retransmits;
+    private final LongAdder forwarded = new LongAdder();
+    private AntiEntropy entropy;
+    private SnippetLog log;
+    private final PeerMetrics metrics = new PeerMetrics(this);
+    // partly received large snippets: at most 4 MB, each given 30 seconds to complete
+    private final ReassemblyCache reassemblyCache = new ReassemblyCache(4 * 1024 * 1024, 30000);
+
+    // a DatagramPacket per sending thread, pointed at each message before it is sent
+    private final ThreadLocal<DatagramPacket> sendPacket = ThreadLocal
+            .withInitial(() -> new DatagramPacket(new byte[0], 0));
+
     ExecutorService e = Executors.newFixedThreadPool(5);
+    // runs the periodic work, which holds no thread while it waits for its next round
+    private final RoundScheduler scheduler = new RoundScheduler(2);
 
     BufferedReader br;
     Scanner s;
@@ -77,17 +190,57 @@ public class Peer {
      */
     public void start(String registryIP, int registryPort) {
         startUDP();
+        metrics.register(this.location.getPort());
+        metrics.start(scheduler);
+        if (HYPARVIEW)
+            overlay = new PartialView(this);
+        if (SYNC_MILLIS > 0)
+            entropy = new AntiEntropy(this);
+        if (LOG_DIR != null)
+            openLog();
         connectToRegistry(registryIP, registryPort);
 
-        broadcastPeers(6);
-        System.out.println("Broadcasting Peers...");
+        if (overlay != null) {
+            overlay.join();
+            overlay.start(scheduler);
+            System.out.println("Joining Overlay...");
+        } else {
+            broadcastPeers(6);
+            System.out.println("Broadcasting Peers...");
+        }
+        if (SWIM) {
+            detector = new FailureDetector(this);
+            detector.start(scheduler);
+        } else {
+            expirePeers();
+        }
 
-        e.execute(new MessageHandler(udpSocket, this));
+        MessageHandler handler = transport != null ? new MessageHandler(this) : new MessageHandler(udpSocket, this);
+        if (WORKERS > 0) {
+            pipeline = new MessagePipeline(this, WORKERS);
+            handler.setPipeline(pipeline);
+        }
+        if (transport != null) {
+            transport.setHandler(handler);
+            e.execute(transport);
+        } else if (receivers != null) {
+            receivers.start(this, pipeline);
+        } else {
+            e.execute(handler);
+        }
         System.out.println("Handling UDP Messages...");
 
+        acks.start(scheduler);
+        if (RETRANSMIT_BYTES > 0) {
+            retransmits = new RetransmitBuffer(this, RETRANSMIT_BYTES);
+            retransmits.start(scheduler);
+        }
+        if (entropy != null)
+            entropy.start(scheduler, SYNC_MILLIS);
         displaySnippets();
         sendSnip();
 
+        // the executor runs nothing with sharded receivers, so they are waited for before the rounds stop
         e.shutdown();
         try {
             while (!e.awaitTermination(5, TimeUnit.SECONDS))
@@ -95,10 +248,17 @@ public class Peer {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        if (receivers != null)
+            receivers.join();
+        scheduler.shutdown();
 
-        udpSocket.close();
+        if (pipeline != null)
+            pipeline.shutdown();
+        closeUDP();
 
         connectToRegistry(registryIP, registryPort);
+        if (log != null)
+            log.close();
 
         try {
             // s.close();
@@ -109,12 +269,30 @@ public class Peer {
     }
 
     /**
-     * Opens a UDP socket on a randomly assigned Port on the current LAN.
+     * Opens a UDP socket on a randomly assigned Port on the current LAN. If
+     * <code>peer.nio</code> is set, a non-blocking NioTransport is opened instead.
+     * If <code>peer.receivers</code> is more than one, that many sockets are bound
+     * to the Port with SO_REUSEPORT.
      */
     private void startUDP() {
         try {
-            udpSocket = new DatagramSocket();
-            this.location = new PeerLocation(getPublicIPv4(), udpSocket.getLocalPort());
+            int port;
+            if (USE_NIO) {
+                transport = new NioTransport();
+                port = transport.getLocalPort();
+            } else if (RECEIVERS > 1) {
+                receivers = new ShardedReceiver(RECEIVERS);
+                udpSocket = receivers.getSocket();
+                port = udpSocket.getLocalPort();
+            } else {
+                udpSocket = new DatagramSocket();
+                port = udpSocket.getLocalPort();
+            }
+            this.location = PeerLocation.of(getPublicIPv4(), port);
+            if (SEND_RATE > 0 || SEND_BYTES > 0) {
+                sender = new SendScheduler(this, SEND_RATE, SEND_BYTES, SEND_QUEUE);
+                sender.start();
+            }
             System.out.println("UDP Server started at: " + this.location.getIP() + ":" + this.location.getPort() + " "
                     + getDateFormatted(getCurrentDate()));
         } catch (Exception e) {
@@ -122,6 +300,66 @@ public class Peer {
         }
     }
 
+    /**
+     * Closes the UDP socket or NioTransport that this Peer object communicates
+     * through.
+     */
+    private void closeUDP() {
+        if (sender != null)
+            sender.close();
+        if (transport != null) {
+            transport.close();
+        } else if (receivers != null) {
+            receivers.close();
+        } else {
+            udpSocket.close();
+        }
+    }
+
+    /**
+     * Sends a message to another peer. If <code>peer.sendrate</code> or
+     * <code>peer.sendbytes</code> is set, the message is queued in a lane of the
+     * SendScheduler, which may drop it if the lane is full; otherwise it is sent
+     * at once. This method can be called from any thread.
+     * 
+     * @param buf    the buffer containing the message, which must not be changed
+     *               after it is sent
+     * @param length the number of bytes in the message
+     * @param to     the PeerLocation of the peer to send the message to
+     * @param lane   the SendScheduler lane of the message
+     * @throws IOException if the message could not be sent
+     */
+    void send(byte[] buf, int length, PeerLocation to, int lane) throws IOException {
+        if (sender != null) {
+            sender.offer(buf, length, to, lane);
+        } else {
+            transmit(buf, length, to);
+        }
+    }
+
+    /**
+     * Sends a message to another peer through this Peer object's UDP socket or
+     * NioTransport, reusing the peer's resolved socket address and a
+     * DatagramPacket kept by the calling thread. This method can be called from
+     * any thread.
+     * 
+     * @param buf    the buffer containing the message, which must not be changed
+     *               after it is sent
+     * @param length the number of bytes in the message
+     * @param to     the PeerLocation of the peer to send the message to
+     * @throws IOException if the message could not be sent
+     */
+    void transmit(byte[] buf, int length, PeerLocation to) throws IOException {
+        if (transport != null) {
+            transport.send(buf, length, to.getSocketAddress());
+        } else {
+            DatagramPacket packet = sendPacket.get();
+            packet.setData(buf, 0, length);
+            packet.setSocketAddress(to.getSocketAddress());
+            udpSocket.send(packet);
+        }
+    }
+
     /**
      * Connects to the registry via a TCP connection and handles all messages with
      * the central registry.
@@ -227,7 +465,19 @@ public class Peer {
 
             for (File f : files) {
                 if (f.getName().equals("Peer.java") || f.getName().equals("MessageHandler.java") ||
-                        f.getName().equals("PeerLocation.java") || f.getName().equals("Snippet.java")) {
+                        f.getName().equals("PeerLocation.java") || f.getName().equals("Snippet.java") ||
+                        f.getName().equals("NioTransport.java") || f.getName().equals("MessageRing.java") ||
+                        f.getName().equals("MessagePipeline.java") || f.getName().equals("MessageView.java") ||
+                        f.getName().equals("ShardedReceiver.java") || f.getName().equals("ReassemblyCache.java") ||
+                        f.getName().equals("PeerLocationCache.java") ||
+                        f.getName().equals("PeerTable.java") || f.getName().equals("LatencyHistogram.java") ||
+                        f.getName().equals("PeerMetrics.java") || f.getName().equals("PeerMetricsMBean.java") ||
+                        f.getName().equals("TimerWheel.java") || f.getName().equals("FailureDetector.java") ||
+                        f.getName().equals("RoundScheduler.java") || f.getName().equals("AddressArchive.java") ||
+                        f.getName().equals("SendScheduler.java") || f.getName().equals("PartialView.java") ||
+                        f.getName().equals("RetransmitBuffer.java") || f.getName().equals("AckBatcher.java") ||
+                        f.getName().equals("SnippetDedup.java") || f.getName().equals("AntiEntropy.java") ||
+                        f.getName().equals("SnippetLog.java") || f.getName().equals("ReceiptLog.java")) {
                     sb.append(readFile(f));
                 }
             }
@@ -260,17 +510,29 @@ public class Peer {
     private void sendReport(BufferedWriter out) {
         StringBuilder sb = new StringBuilder();
 
+        // append peers, live and timed out, counting them as they are listed since
+        // peers move between the tables while the report is written
+        StringBuilder known = new StringBuilder();
+        int[] numOfPeers = new int[1];
+        PeerTable.Visitor list = (address, lastSeen) -> {
+            PeerLocation key = PeerLocation.of(address);
+            known.append(key.getIP());
+            known.append(":");
+            known.append(key.getPort());
+            known.append("\n");
+            numOfPeers[0]++;
+        };
+        peers.forEach(list);
+        dead.forEach(list);
+        evicted.forEach(address -> {
+            if (!peers.contains(address) && !dead.contains(address))
+                list.visit(address, 0);
+        });
+
         // append number of peers
-        sb.append(Integer.toString(peers.size()));
+        sb.append(Integer.toString(numOfPeers[0]));
         sb.append("\n");
-
-        // append peers
-        for (PeerLocation key : peers.keySet()) {
-            sb.append(key.getIP());
-            sb.append(":");
-            sb.append(key.getPort());
-            sb.append("\n");
-        }
+        sb.append(known);
 
         // append number of sources
         sb.append(Integer.toString(sources.size()));
@@ -303,37 +565,46 @@ public class Peer {
         sb.append("\n");
 
         // append peers received from udp
-        for (String s : peersReceived) {
-            sb.append(s);
-            sb.append("\n");
-        }
+        appendReceipts(sb, peersReceived);
 
         // append number of peers sent from udp
         sb.append(peersSent.size());
         sb.append("\n");
 
         // append peers sent from udp
-        for (String s : peersSent) {
-            sb.append(s);
-            sb.append("\n");
-        }
+        appendReceipts(sb, peersSent);
 
         // append number of snippets in the System
-        sb.append(snippetsInSystem.size());
+        sb.append(log != null ? log.size() : snippetsInSystem.size());
         sb.append("\n");
 
         // append snippets
+        if (log != null) {
+            log.forEach(s -> appendSnippet(sb, s));
+        }
         while (!snippetsInSystem.isEmpty()) {
-            Snippet s = snippetsInSystem.poll();
-            sb.append(s.getTimestamp());
-            sb.append(" ");
-            sb.append(s.getContent());
+            appendSnippet(sb, snippetsInSystem.poll());
+        }
+
+        // append number of snippet acks received
+        sb.append(acksReceived.size());
+        sb.append("\n");
+
+        // append snippet acks received, formatting their dates only now
+        DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        Date date = new Date();
+        acksReceived.forEach((timestamp, sender, time) -> {
+            PeerLocation from = PeerLocation.of(sender);
+            date.setTime(time);
+            sb.append(timestamp);
             sb.append(" ");
-            sb.append(s.getSourcePeer().getIP());
+            sb.append(from.getIP());
             sb.append(":");
-            sb.append(s.getSourcePeer().getPort());
+            sb.append(from.getPort());
+            sb.append(" ");
+            sb.append(df.format(date));
             sb.append("\n");
-        }
+        });
 
         // create report
         String report = sb.toString();
@@ -349,6 +620,50 @@ public class Peer {
         }
     }
 
+    /**
+     * Appends every receipt of a ReceiptLog to a report as the two peers and the
+     * time, formatting the addresses and dates only now.
+     * 
+     * @param sb       the StringBuilder holding the report
+     * @param receipts the ReceiptLog to append
+     */
+    private void appendReceipts(StringBuilder sb, ReceiptLog receipts) {
+        DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        Date date = new Date();
+        receipts.forEach((sender, peer, time) -> {
+            PeerLocation from = PeerLocation.of(sender);
+            PeerLocation p = PeerLocation.of(peer);
+            date.setTime(time);
+            sb.append(from.getIP());
+            sb.append(":");
+            sb.append(from.getPort());
+            sb.append(" ");
+            sb.append(p.getIP());
+            sb.append(":");
+            sb.append(p.getPort());
+            sb.append(" ");
+            sb.append(df.format(date));
+            sb.append("\n");
+        });
+    }
+
+    /**
+     * Appends one snippet to a report as its timestamp, content and source.
+     * 
+     * @param sb the report
+     * @param s  the Snippet
+     */
+    private static void appendSnippet(StringBuilder sb, Snippet s) {
+        sb.append(s.getTimestamp());
+        sb.append(" ");
+        sb.append(s.getContent());
+        sb.append(" ");
+        sb.append(s.getSourcePeer().getIP());
+        sb.append(":");
+        sb.append(s.getSourcePeer().getPort());
+        sb.append("\n");
+    }
+
     /**
      * Sends the location: IP and Port of this Peer object's UDP socket to an output stream.
      * 
@@ -375,7 +690,7 @@ public class Peer {
         // get the source IP and port
         int sourcePort = s.getPort();
         String sourceIP = s.getInetAddress().getHostAddress();
-        PeerLocation source = new PeerLocation(sourceIP, sourcePort);
+        PeerLocation source = PeerLocation.of(sourceIP, sourcePort);
 
         try {
             // get the number of peers
@@ -388,20 +703,24 @@ public class Peer {
                 String[] peerLocation = in.readLine().split(":");
                 String peerIP = peerLocation[0];
                 int peerPort = Integer.parseInt(peerLocation[1]);
-                PeerLocation peer = new PeerLocation(peerIP, peerPort);
-                peers.put(peer, getCurrentDate());
+                PeerLocation peer = PeerLocation.of(peerIP, peerPort);
+                touchPeer(peer, System.currentTimeMillis());
+                if (overlay != null)
+                    overlay.addPassive(peer.getAddress());
                 peersFromSource.add(peer);
             }
 
             // add source
             sources.put(source, getCurrentDate());
             sourcePeers.put(source, peersFromSource);
+            dropOldSources();
 
             // print peers
             System.out.println("All Known Peers: ");
-            for (PeerLocation key : peers.keySet()) {
+            peers.forEach((address, lastSeen) -> {
+                PeerLocation key = PeerLocation.of(address);
                 System.out.println(key.getIP() + ":" + key.getPort());
-            }
+            });
 
             // print sources
             System.out.println("All Known Sources: ");
@@ -414,6 +733,22 @@ public class Peer {
         }
     }
 
+    /**
+     * Drops the sources that peers were received from longest ago until at most
+     * <code>MAX_SOURCES</code> are left. The peers received from them stay known.
+     */
+    private synchronized void dropOldSources() {
+        while (sources.size() > MAX_SOURCES) {
+            PeerLocation oldest = null;
+            for (PeerLocation key : sources.keySet()) {
+                if (oldest == null || sources.get(key).before(sources.get(oldest)))
+                    oldest = key;
+            }
+            sources.remove(oldest);
+            sourcePeers.remove(oldest);
+        }
+    }
+
     /**
      * Adds a Peer to this Peer object's list of all known peers.
      * 
@@ -421,110 +756,531 @@ public class Peer {
      * @param packet the DatagramPacket that sent the Peer info
      */
     public void addPeer(PeerLocation p, DatagramPacket packet) {
-        PeerLocation receivedFrom = new PeerLocation(packet.getAddress().getHostAddress(), packet.getPort());
-        if (peers.containsKey(receivedFrom)) {
-            peers.replace(receivedFrom, getCurrentDate());
-        } else {
-            peers.put(receivedFrom, getCurrentDate());
+        addPeer(p, PeerLocation.of(packet.getAddress(), packet.getPort()));
+    }
+
+    /**
+     * Adds a Peer to this Peer object's list of all known peers.
+     * 
+     * @param p            the PeerLocation the peer that is being added
+     * @param receivedFrom the PeerLocation of the peer that sent the Peer info
+     */
+    public void addPeer(PeerLocation p, PeerLocation receivedFrom) {
+        addPeer(p, -1, receivedFrom);
+    }
+
+    /**
+     * Adds a Peer to this Peer object's list of all known peers, given how long
+     * ago the peer that sent it last heard from it.
+     * 
+     * @param p            the PeerLocation the peer that is being added
+     * @param age          the number of milliseconds since the sender last heard
+     *                     from the peer, or <code>-1</code> if it did not say
+     * @param receivedFrom the PeerLocation of the peer that sent the Peer info
+     */
+    public void addPeer(PeerLocation p, int age, PeerLocation receivedFrom) {
+        // single atomic table operations keep the table consistent across receiver threads
+        long now = System.currentTimeMillis();
+        touchPeer(receivedFrom, now);
+        // only packed addresses are recorded, so that a peer message allocates nothing
+        if (p.getAddress() >= 0) {
+            learnPeer(p.getAddress(), age, now);
+            if (receivedFrom.getAddress() >= 0)
+                peersReceived.add(receivedFrom.getAddress(), p.getAddress(), now);
+        }
+    }
+
+    /**
+     * Records that a peer was heard from, adding it to this Peer object's list of
+     * all known peers if it is not known. Peers without a dotted-quad IPv4
+     * address cannot be stored and are skipped.
+     * 
+     * @param p   the PeerLocation of the peer
+     * @param now the current time in milliseconds
+     */
+    private void touchPeer(PeerLocation p, long now) {
+        if (p.getAddress() < 0) {
+            System.err.println("Skipping peer without an IPv4 address: " + p.getIP() + ":" + p.getPort());
+            return;
         }
-        String received = packet.getAddress().getHostAddress() + ":" + packet.getPort() + " " +
-                p.getIP() + ":" + p.getPort() + " " + getDateFormatted(getCurrentDate());
-        peersReceived.add(received);
-        if (peers.containsKey(p)) {
+        // a peer added again may have been replaced, so its socket address is resolved again
+        if (peers.advance(p.getAddress(), now, REFRESH_MILLIS)) {
+            dead.remove(p.getAddress());
+            scheduleExpiry(p.getAddress(), now + TIMEOUT_MILLIS);
+            p.invalidate();
+        }
+    }
+
+    /**
+     * Adds a peer that another peer told this Peer object about, if it is not
+     * known. A peer that timed out is only added back once it is heard from
+     * itself, so that peers do not keep gossiping a dead peer back to life.
+     * 
+     * @param address the packed address of the peer
+     * @param now     the current time in milliseconds
+     */
+    private void learnPeer(long address, long now) {
+        if (!dead.contains(address) && peers.putIfAbsent(address, now))
+            scheduleExpiry(address, now + TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Adds a peer that another peer told this Peer object about along with how
+     * long ago it last heard from the peer, and moves the peer's last-seen time
+     * forward to then. Since an age only grows as a peer is passed on, a peer
+     * stays alive while some peer keeps hearing from it and times out everywhere
+     * once none does. A dead peer is added back if it was heard from after it
+     * was last heard from here. Peers without an age, and every peer with the
+     * FailureDetector, are added as by {@link #learnPeer(long, long)}.
+     * 
+     * @param address the packed address of the peer
+     * @param age     the number of milliseconds since the sender last heard from
+     *                the peer, or <code>-1</code> if it did not say
+     * @param now     the current time in milliseconds
+     */
+    private void learnPeer(long address, int age, long now) {
+        if (age < 0 || SWIM) {
+            learnPeer(address, now);
+            return;
+        }
+        long seen = now - age;
+        if (age >= TIMEOUT_MILLIS || dead.lastSeen(address) >= seen)
             return;
+        if (peers.advance(address, seen, REFRESH_MILLIS)) {
+            dead.remove(address);
+            scheduleExpiry(address, seen + TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * Schedules a peer to be checked for timing out. With the FailureDetector
+     * peers do not time out from silence, so nothing is scheduled.
+     * 
+     * @param address  the packed address of the peer
+     * @param deadline the time in milliseconds the peer times out if it is not
+     *                 heard from
+     */
+    private void scheduleExpiry(long address, long deadline) {
+        if (!SWIM)
+            expiry.schedule(address, deadline);
+    }
+
+    /**
+     * Gets the earliest last-seen time of a peer that is considered alive. With
+     * the FailureDetector every peer in the list of known peers is alive until
+     * it is declared dead.
+     * 
+     * @param now the current time in milliseconds
+     * @return the earliest last-seen time in milliseconds
+     */
+    private long liveSince(long now) {
+        return SWIM ? 0 : now - TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Records that a peer is alive, adding it back to this Peer object's list
+     * of all known peers if it is dead or not known.
+     * 
+     * @param address the packed address of the peer
+     */
+    void markAlive(long address) {
+        if (address > 0)
+            touchPeer(PeerLocation.of(address), System.currentTimeMillis());
+    }
+
+    /**
+     * Moves a peer from this Peer object's list of all known peers to the dead
+     * peers.
+     * 
+     * @param address the packed address of the peer
+     */
+    void markDead(long address) {
+        long lastSeen = peers.lastSeen(address);
+        if (lastSeen >= 0 && peers.remove(address))
+            dead.putIfAbsent(address, lastSeen);
+    }
+
+    /**
+     * Checks if a peer is in this Peer object's list of all known peers and is
+     * considered alive.
+     * 
+     * @param address the packed address of the peer
+     * @return <code>true</code> if the peer was heard from recently enough
+     */
+    boolean isLive(long address) {
+        return peers.lastSeen(address) >= liveSince(System.currentTimeMillis());
+    }
+
+    /**
+     * Checks if a peer is in this Peer object's list of all known peers.
+     * 
+     * @param address the packed address of the peer
+     * @return <code>true</code> if the peer is known and not dead
+     */
+    boolean isKnown(long address) {
+        return peers.contains(address);
+    }
+
+    /**
+     * Picks live peers uniformly at random.
+     * 
+     * @param into the array to copy the addresses into, whose length is the
+     *             number of peers wanted
+     * @return the number of addresses copied
+     */
+    int samplePeers(long[] into) {
+        return peers.sample(into, liveSince(System.currentTimeMillis()), ThreadLocalRandom.current());
+    }
+
+    /**
+     * Picks a live peer at random, looking at only a few entries of this Peer
+     * object's list of all known peers.
+     * 
+     * @return the packed address of the peer, or <code>0</code> if none was found
+     */
+    long pickPeer() {
+        return peers.pick(liveSince(System.currentTimeMillis()), ThreadLocalRandom.current());
+    }
+
+    /**
+     * Moves peers that have not been heard from for
+     * <code>TIMEOUT_MILLIS</code> to the dead peers every
+     * <code>EXPIRY_TICK_MILLIS</code>. A peer is looked at only when its
+     * TimerWheel deadline passes; if it was heard from since, it is scheduled
+     * again from the last time it was heard from.
+     */
+    private void expirePeers() {
+        scheduler.every(EXPIRY_TICK_MILLIS, 0, new Runnable() {
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                int numOfDue = expiry.advance(now);
+                long[] due = expiry.getDue();
+                for (int a = 0; a < numOfDue; a++) {
+                    long lastSeen = peers.lastSeen(due[a]);
+                    if (lastSeen < 0)
+                        continue;
+                    if (lastSeen + TIMEOUT_MILLIS > now) {
+                        expiry.schedule(due[a], lastSeen + TIMEOUT_MILLIS);
+                    } else if (peers.removeIfSilent(due[a], now - TIMEOUT_MILLIS)) {
+                        dead.putIfAbsent(due[a], lastSeen);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds a batch of Peers to this Peer object's list of all known peers. Every
+     * peer in the batch is given the same last-seen time.
+     * 
+     * @param locations    the PeerLocations of the peers being added
+     * @param receivedFrom the PeerLocations of the peers that sent each entry of
+     *                     <code>locations</code>
+     */
+    public void addPeers(List<PeerLocation> locations, List<PeerLocation> receivedFrom) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < locations.size(); i++) {
+            PeerLocation p = locations.get(i);
+            PeerLocation from = receivedFrom.get(i);
+            touchPeer(from, now);
+            if (p.getAddress() >= 0) {
+                learnPeer(p.getAddress(), now);
+                if (from.getAddress() >= 0)
+                    peersReceived.add(from.getAddress(), p.getAddress(), now);
+            }
+        }
+    }
+
+    /**
+     * Adds the peers carried by a peer list to this Peer object's list of all
+     * known peers with one update to the PeerTable. Peers sent with their ages
+     * are instead each moved forward to the time they were last heard from.
+     * 
+     * @param entries      the packed addresses of the peers
+     * @param ages         the number of milliseconds since the sender last heard
+     *                     from each peer, or <code>-1</code> for a peer without an
+     *                     age
+     * @param count        the number of peers in <code>entries</code>
+     * @param receivedFrom the PeerLocation of the peer that sent the peer list
+     */
+    public void addPeers(long[] entries, int[] ages, int count, PeerLocation receivedFrom) {
+        long now = System.currentTimeMillis();
+        touchPeer(receivedFrom, now);
+        if (!SWIM && count > 0 && ages[0] >= 0) {
+            for (int a = 0; a < count; a++) {
+                learnPeer(entries[a], ages[a], now);
+            }
         } else {
-            peers.put(p, getCurrentDate());
+            addAll(entries, count, now);
+        }
+        if (receivedFrom.getAddress() >= 0) {
+            for (int a = 0; a < count; a++) {
+                peersReceived.add(receivedFrom.getAddress(), entries[a], now);
+            }
         }
-        //System.out.println("Recv: " + received);
+    }
+
+    /**
+     * Adds the peers of a peer list that are not known or dead with one update to
+     * the PeerTable.
+     * 
+     * @param entries the packed addresses of the peers
+     * @param count   the number of peers in <code>entries</code>
+     * @param now     the current time in milliseconds
+     */
+    private void addAll(long[] entries, int count, long now) {
+        long[] fresh = entries;
+        int numOfFresh = count;
+        for (int a = 0; a < count; a++) {
+            if (dead.contains(entries[a])) {
+                // dead peers are left out of a copy, since the entries belong to the caller
+                fresh = new long[count];
+                numOfFresh = 0;
+                for (int b = 0; b < count; b++) {
+                    if (!dead.contains(entries[b]))
+                        fresh[numOfFresh++] = entries[b];
+                }
+                break;
+            }
+        }
+        peers.putAllIfAbsent(fresh, numOfFresh, now,
+                (address, lastSeen) -> scheduleExpiry(address, lastSeen + TIMEOUT_MILLIS));
     }
 
     /**
      * Periodically broadcasts this Peer object's list of all known peers to all of its known peers.
+     * Each round sends the next known peer to every live peer, and once all of
+     * them have been sent the list is taken again. If <code>peer.fanout</code> is
+     * set, peers are gossiped instead.
      * 
      * @param seconds the number of seconds to wait between each broadcast
      */
     private void broadcastPeers(int seconds) {
-        e.execute(new Runnable() {
+        if (FANOUT > 0) {
+            gossipPeers(seconds);
+            return;
+        }
+        scheduler.every(seconds * 1000L, ROUND_JITTER, new Runnable() {
+            long[] senders = new long[64];
+            long[] receivers = new long[64];
+            int numOfSenders = 0;
+            int next = 0;
+
             @Override
             public void run() {
-                DatagramPacket packet;
-                byte[] buf;
-                String msg;
+                // once every peer has been sent, start again with the peers known now
+                if (next == numOfSenders) {
+                    if (senders.length < peers.size())
+                        senders = new long[peers.size() * 2];
+                    numOfSenders = peers.collect(senders, liveSince(System.currentTimeMillis()));
+                    next = 0;
+                    if (numOfSenders == 0)
+                        return;
+                }
+                // send peer i
+                PeerLocation i = PeerLocation.of(senders[next++]);
+                try {
+                    String msg = "peer" + i.getIP() + ":" + i.getPort();
+                    byte[] buf = msg.getBytes();
+                    // send peer i to all live peers j
+                    if (receivers.length < peers.size())
+                        receivers = new long[peers.size() * 2];
+                    int numOfReceivers = peers.collect(receivers, liveSince(System.currentTimeMillis()));
+                    for (int b = 0; b < numOfReceivers; b++) {
+                        PeerLocation j = PeerLocation.of(receivers[b]);
+                        send(buf, buf.length, j, SendScheduler.MEMBERSHIP);
+                        peersSent.add(j.getAddress(), i.getAddress(), System.currentTimeMillis());
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
 
-                while (!stop) {
-                    // send peer i
-                    for (PeerLocation i : peers.keySet()) {
-                        if (!isAlive(peers.get(i), 10))
+    /**
+     * Periodically gossips this Peer object's known peers with push-pull. Each
+     * round pushes the peers that changed since the last exchange to
+     * <code>FANOUT</code> random live peers and sends each of them a pull
+     * message, which they answer with their own changes. A peer that is still
+     * heard from counts as changed once every <code>REFRESH_MILLIS</code>, so
+     * that the peers which do not hear from it directly keep it alive. Rounds
+     * start every <code>seconds</code> seconds however many peers are known; a
+     * round that overruns is not made up.
+     * 
+     * @param seconds the length of a gossip round in seconds
+     */
+    private void gossipPeers(int seconds) {
+        scheduler.every(seconds * 1000L, ROUND_JITTER, new Runnable() {
+            byte[] pull = "pull".getBytes();
+            long[] targets = new long[FANOUT];
+
+            @Override
+            public void run() {
+                try {
+                    long since = liveSince(System.currentTimeMillis());
+                    int numOfTargets = peers.sample(targets, since, ThreadLocalRandom.current());
+                    for (int a = 0; a < numOfTargets; a++) {
+                        if (targets[a] == location.getAddress())
                             continue;
-                        try {
-                            msg = "peer" + i.getIP() + ":" + i.getPort();
-                            buf = msg.getBytes();
-                            // send peer i to all peers j
-                            for (PeerLocation j : peers.keySet()) {
-                                if (!isAlive(peers.get(j), 10))
-                                    continue;
-                                String sendToIP = j.getIP();
-                                int sendToPort = j.getPort();
-                                packet = new DatagramPacket(buf, buf.length, InetAddress.getByName(sendToIP),
-                                        sendToPort);
-                                udpSocket.send(packet);
-
-                                String sent = sendToIP + ":" + sendToPort + " " + i.getIP() + ":" + i.getPort() + " "
-                                        + getDateFormatted(getCurrentDate());
-                                peersSent.add(sent);
-                                //System.out.println("Sent: " + sent);
-                            }
-                            TimeUnit.SECONDS.sleep(seconds);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
+                        PeerLocation j = PeerLocation.of(targets[a]);
+                        syncPeers(j);
+                        send(pull, pull.length, j, SendScheduler.MEMBERSHIP);
                     }
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
             }
         });
     }
 
+    /**
+     * Answers a pull message by pushing the live peers that changed since the
+     * last exchange to the peer that sent it.
+     * 
+     * @param from the PeerLocation of the peer that sent the pull message
+     */
+    public void answerPull(PeerLocation from) {
+        touchPeer(from, System.currentTimeMillis());
+        try {
+            syncPeers(from);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends a peer the live peers added to this Peer object's list of known
+     * peers, or given a new version because they were heard from again, since
+     * the version last sent to it. A full sync of every live peer is sent
+     * instead if the peer was never sent the list or its version is older than
+     * the changes kept by the PeerTable.
+     * 
+     * @param to the PeerLocation of the peer to send the changes to
+     * @throws IOException if a peer message could not be sent
+     */
+    private void syncPeers(PeerLocation to) throws IOException {
+        if (to.getAddress() < 0)
+            return;
+        long since = liveSince(System.currentTimeMillis());
+        long version = peers.getVersion();
+        long synced = peers.getSynced(to.getAddress());
+        long[] entries = new long[PeerTable.CHANGE_LOG];
+        int count = synced == 0 ? -1 : peers.changedSince(synced, entries, since);
+        if (count < 0) {
+            entries = new long[peers.size()];
+            count = peers.collect(entries, since);
+        }
+        pushPeers(to, entries, count);
+        peers.setSynced(to.getAddress(), version);
+    }
+
+    /**
+     * Sends the given peers to one peer. If <code>peer.lists</code> is set, as
+     * many peers as fit in a datagram are packed into each peer list; otherwise
+     * one peer message is sent per peer. Each peer is sent with how long ago
+     * this Peer object last heard from it.
+     * 
+     * @param to      the PeerLocation of the peer to send the peers to
+     * @param entries the packed addresses of the peers to send
+     * @param count   the number of entries to send
+     * @throws IOException if a message could not be sent
+     */
+    private void pushPeers(PeerLocation to, long[] entries, int count) throws IOException {
+        long now = System.currentTimeMillis();
+        byte[] buf = null;
+        int length = 0;
+        for (int a = 0; a < count; a++) {
+            // this Peer object is heard from by sending, and a peer removed since it was listed is left out
+            long seen = entries[a] == location.getAddress() ? now : peers.lastSeen(entries[a]);
+            if (seen < 0)
+                continue;
+            int age = (int) Math.min(Math.max(now - seen, 0), Integer.MAX_VALUE);
+            PeerLocation i = PeerLocation.of(entries[a]);
+            if (!PEER_LISTS) {
+                buf = ("peer" + i.getIP() + ":" + i.getPort() + "/" + age).getBytes();
+                send(buf, buf.length, to, SendScheduler.MEMBERSHIP);
+            } else {
+                if (buf == null) {
+                    buf = new byte[ReassemblyCache.MAX_DATAGRAM];
+                    length = MessageView.beginPeers(buf, BINARY_PEER_LISTS);
+                }
+                int next = MessageView.appendEntry(buf, length, entries[a], age, BINARY_PEER_LISTS);
+                if (next < 0) {
+                    // a sent buffer must not be changed, so each full list gets a new one
+                    send(buf, length, to, SendScheduler.MEMBERSHIP);
+                    buf = new byte[ReassemblyCache.MAX_DATAGRAM];
+                    length = MessageView.beginPeers(buf, BINARY_PEER_LISTS);
+                    next = MessageView.appendEntry(buf, length, entries[a], age, BINARY_PEER_LISTS);
+                }
+                length = next;
+            }
+            peersSent.add(to.getAddress(), entries[a], now);
+        }
+        if (PEER_LISTS && buf != null)
+            send(buf, length, to, SendScheduler.MEMBERSHIP);
+    }
+
     /**
      * Sends a DatagramPacket containing a snippet message to this Peer object's UDP socket.
      */
     private void sendSnip() {
-        e.execute(new Runnable() {
+        System.out.println("Send Message: ");
+        br = new BufferedReader(new InputStreamReader(System.in));
+        scheduler.every(INPUT_POLL_MILLIS, 0, new Runnable() {
+            long[] alive = new long[64];
+
             @Override
             public void run() {
-                DatagramPacket packet;
-                byte[] buf;
                 String msg;
-
-                System.out.println("Send Message: ");
-                br = new BufferedReader(new InputStreamReader(System.in));
                 String content;
                 while (!stop) {
                     try {
-                        Thread.sleep(500);
                         if (!br.ready()) {
-                            continue;
+                            return;
                         }
                         content = br.readLine();
 
-                        timestamp += 1;
+                        int t = timestamp.incrementAndGet();
 
                         StringBuilder sb = new StringBuilder();
                         sb.append("snip");
-                        sb.append(timestamp);
+                        sb.append(t);
                         sb.append(" ");
                         sb.append(content);
 
                         msg = sb.toString();
 
-                        buf = msg.getBytes();
+                        // snippets too large for one datagram are sent as frag messages
+                        List<byte[]> messages;
+                        if (msg.getBytes().length > ReassemblyCache.MAX_DATAGRAM) {
+                            messages = ReassemblyCache.fragment(t, content);
+                        } else {
+                            messages = List.of(msg.getBytes());
+                        }
 
-                        for (PeerLocation i : peers.keySet()) {
-                            if (!isAlive(peers.get(i), 10))
-                                continue;
-                            String sendToIP = i.getIP();
-                            int sendToPort = i.getPort();
-                            packet = new DatagramPacket(buf, buf.length, InetAddress.getByName(sendToIP), sendToPort);
-                            udpSocket.send(packet);
+                        int numOfPeers;
+                        if (overlay != null) {
+                            numOfPeers = overlay.getActive(alive);
+                        } else if (FORWARD_FANOUT > 0) {
+                            // the peers it is sent to forward it to the rest
+                            if (alive.length != FORWARD_FANOUT)
+                                alive = new long[FORWARD_FANOUT];
+                            numOfPeers = samplePeers(alive);
+                        } else {
+                            if (alive.length < peers.size())
+                                alive = new long[peers.size() * 2];
+                            numOfPeers = peers.collect(alive, liveSince(System.currentTimeMillis()));
+                        }
+                        long now = System.currentTimeMillis();
+                        for (int a = 0; a < numOfPeers; a++) {
+                            PeerLocation i = PeerLocation.of(alive[a]);
+                            for (byte[] buf : messages) {
+                                send(buf, buf.length, i, SendScheduler.SNIPPET);
+                            }
+                            if (retransmits != null)
+                                retransmits.track(i, t, messages, now);
                         }
 
                     } catch (Exception e) {
@@ -535,49 +1291,211 @@ public class Peer {
         });
     }
 
+    /**
+     * Queues the ack of a received snippet to the peer that sent it. Snippets
+     * are acknowledged even if they were received before, since the ack sent
+     * the first time may have been lost.
+     * 
+     * @param s the Snippet that was received
+     */
+    public void ackSnippet(Snippet s) {
+        long source = s.getSourcePeer().getAddress();
+        if (source > 0)
+            acks.add(source, s.getTimestamp());
+    }
+
+    /**
+     * Records that a snippet was received and checks if it was received before.
+     * 
+     * @param s the Snippet that was received
+     * @return <code>true</code> if the snippet is new, or <code>false</code> if
+     *         it is a duplicate and should be dropped
+     */
+    public boolean isNewSnippet(Snippet s) {
+        return dedup.add(s.getSourcePeer().getAddress(), s.getTimestamp());
+    }
+
+    /**
+     * Forwards a new snippet to the peers of the active view, or to
+     * <code>FORWARD_FANOUT</code> random live peers, as a fwrd message with one
+     * less hop to live. Each peer that has not received it before forwards it
+     * again, so a snippet reaches every peer even though its author only sent
+     * it to a few. Snippets are only forwarded if the overlay is used or
+     * <code>FORWARD_FANOUT</code> is set, and never if they do not fit in one
+     * datagram.
+     * 
+     * @param s    the Snippet that was received
+     * @param ttl  the number of hops the snippet has left
+     * @param from the packed address of the peer it was received from, which it
+     *             is not sent back to
+     */
+    public void forwardSnippet(Snippet s, int ttl, long from) {
+        if (ttl <= 0 || (overlay == null && FORWARD_FANOUT == 0))
+            return;
+        PeerLocation origin = s.getSourcePeer();
+        long source = origin.getAddress();
+        byte[] buf = ("fwrd" + s.getTimestamp() + " " + (ttl - 1) + " " + origin.getIP() + ":" + origin.getPort()
+                + " " + s.getContent()).getBytes();
+        if (buf.length > ReassemblyCache.MAX_DATAGRAM)
+            return;
+
+        long[] targets;
+        int numOfTargets;
+        if (overlay != null) {
+            targets = new long[PartialView.ACTIVE_SIZE];
+            numOfTargets = overlay.getActive(targets);
+        } else {
+            // two extra in case the sender and the source are picked
+            targets = new long[FORWARD_FANOUT + 2];
+            numOfTargets = samplePeers(targets);
+        }
+        // the sample keeps the first peers of the table in place, so start at a random one
+        int first = numOfTargets > 0 ? ThreadLocalRandom.current().nextInt(numOfTargets) : 0;
+        int sent = 0;
+        for (int a = 0; a < numOfTargets && (overlay != null || sent < FORWARD_FANOUT); a++) {
+            long target = targets[(first + a) % numOfTargets];
+            if (target == from || target == source || target == location.getAddress())
+                continue;
+            try {
+                send(buf, buf.length, PeerLocation.of(target), SendScheduler.SNIPPET);
+                sent++;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (sent > 0)
+            forwarded.increment();
+    }
+
+    /**
+     * Records the acks of snippets that a peer received from this Peer object,
+     * so that they are not sent to it again.
+     * 
+     * @param timestamps the timestamps of the acknowledged snippets
+     * @param count      the number of timestamps
+     * @param from       the PeerLocation of the peer that sent the acks
+     */
+    public void addAcks(int[] timestamps, int count, PeerLocation from) {
+        long now = System.currentTimeMillis();
+        touchPeer(from, now);
+        acksReceived.add(timestamps, count, from.getAddress(), now);
+        if (retransmits != null)
+            retransmits.onAck(from.getAddress(), timestamps, count, now);
+    }
+
     /**
      * Adds a snippet message to this Peer object's snippet queue.
      * 
      * @param s the Snippet message being added
      */
     public void addSnippet(Snippet s) {
-        timestamp = Math.max(timestamp, s.getTimestamp());
-        if (peers.containsKey(s.getSourcePeer())) {
-            peers.replace(s.getSourcePeer(), getCurrentDate());
-        } else {
-            peers.put(s.getSourcePeer(), getCurrentDate());
-        }
+        timestamp.accumulateAndGet(s.getTimestamp(), Math::max);
+        touchPeer(s.getSourcePeer(), System.currentTimeMillis());
+        if (entropy != null)
+            entropy.add(s);
         snippetQueue.add(s);
     }
 
+    /**
+     * Adds a batch of snippet messages to this Peer object's snippet queue. The
+     * timestamp is advanced once for the whole batch.
+     * 
+     * @param batch the Snippet messages being added
+     */
+    public void addSnippets(List<Snippet> batch) {
+        long now = System.currentTimeMillis();
+        int max = 0;
+        for (Snippet s : batch) {
+            max = Math.max(max, s.getTimestamp());
+            touchPeer(s.getSourcePeer(), now);
+            if (entropy != null)
+                entropy.add(s);
+        }
+        timestamp.accumulateAndGet(max, Math::max);
+        snippetQueue.addAll(batch);
+    }
+
     /**
      * Displays all snippet messages in this Peer object's snippet queue.
      */
     private void displaySnippets() {
-        e.execute(new Runnable() {
+        scheduler.every(DISPLAY_MILLIS, 0, new Runnable() {
             @Override
             public void run() {
-                while (!stop) {
-                    try {
-                        Snippet s = snippetQueue.poll(5, TimeUnit.SECONDS);
-                        if (s != null) {
-                            snippetsInSystem.add(s);
-                            System.out.println(s.getTimestamp() + " " + s.getContent() + " " + s.getSourcePeer().getIP()
-                                    + ":" + s.getSourcePeer().getPort());
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
+                Snippet s;
+                while ((s = snippetQueue.poll()) != null) {
+                    if (log != null) {
+                        logSnippet(s);
+                    } else {
+                        snippetsInSystem.add(s);
                     }
+                    System.out.println(s.getTimestamp() + " " + s.getContent() + " " + s.getSourcePeer().getIP()
+                            + ":" + s.getSourcePeer().getPort());
                 }
             }
         });
     }
 
+    /**
+     * Opens the snippet log in <code>LOG_DIR</code> and recovers the snippets
+     * logged before this Peer object was started: the clock is advanced past
+     * them and they are remembered as received. If the log cannot be opened,
+     * snippets are kept on the heap instead.
+     */
+    private void openLog() {
+        SnippetLog opened = new SnippetLog(new File(LOG_DIR), LOG_SEGMENT_BYTES, LOG_SEGMENTS, HOT_SNIPPETS,
+                (source, t) -> {
+                    if (entropy != null)
+                        entropy.remove(source, t);
+                });
+        try {
+            opened.open();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        log = opened;
+        log.forEach(s -> {
+            timestamp.accumulateAndGet(s.getTimestamp(), Math::max);
+            dedup.add(s.getSourcePeer().getAddress(), s.getTimestamp());
+            if (entropy != null)
+                entropy.add(s);
+        });
+        System.out.println("Recovered " + log.size() + " Snippets");
+    }
+
+    /**
+     * Appends a snippet to the snippet log, which keeps it on the heap until
+     * <code>HOT_SNIPPETS</code> more recent snippets are logged.
+     * 
+     * @param s the Snippet to log
+     */
+    private void logSnippet(Snippet s) {
+        try {
+            log.append(s);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Finds a snippet that was displayed in the snippet log, whose index finds it
+     * in constant time.
+     * 
+     * @param timestamp the timestamp of the snippet
+     * @param source    the packed address of the source of the snippet
+     * @return the Snippet, or <code>null</code> if it is not kept
+     */
+    Snippet findSnippet(int timestamp, long source) {
+        return log != null ? log.read(timestamp, source) : null;
+    }
+
     /**
      * Sets this Peer object's stop flag.
      */
     public void stop() {
         this.stop = true;
+        scheduler.shutdown();
     }
 
     /**
@@ -589,13 +1507,207 @@ public class Peer {
         return this.stop;
     }
 
+    /**
+     * Sets the time until which this Peer object keeps answering stop messages
+     * after it has stopped.
+     * 
+     * @param deadline the time in milliseconds since the epoch
+     */
+    public void setLingerDeadline(long deadline) {
+        this.lingerDeadline = deadline;
+    }
+
+    /**
+     * Gets the time until which this Peer object keeps answering stop messages
+     * after it has stopped.
+     * 
+     * @return the time in milliseconds since the epoch
+     */
+    public long getLingerDeadline() {
+        return this.lingerDeadline;
+    }
+
+    /**
+     * Gets the PeerMetrics that count the messages this Peer object handles.
+     * 
+     * @return the PeerMetrics
+     */
+    public PeerMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Gets the ReassemblyCache that puts this Peer object's received frag
+     * messages back together.
+     * 
+     * @return the ReassemblyCache
+     */
+    public ReassemblyCache getReassemblyCache() {
+        return this.reassemblyCache;
+    }
+
+    /**
+     * Gets the number of peers this Peer object knows of. The count is read
+     * without locking, so it is approximate while peers are being added or
+     * removed.
+     * 
+     * @return the number of known peers
+     */
+    public int getPeerCount() {
+        return this.peers.size();
+    }
+
+    /**
+     * Gets the number of peers this Peer object has moved to the dead peers.
+     * 
+     * @return the number of dead peers
+     */
+    public int getDeadPeerCount() {
+        return this.dead.size();
+    }
+
+    /**
+     * Gets the FailureDetector that decides which of this Peer object's peers
+     * are alive.
+     * 
+     * @return the FailureDetector, or <code>null</code> if peers time out from
+     *         silence
+     */
+    public FailureDetector getFailureDetector() {
+        return this.detector;
+    }
+
+    /**
+     * Gets the number of bytes of heap used by this Peer object's tables of
+     * live, dead and evicted peers.
+     * 
+     * @return the number of bytes used
+     */
+    public long getMembershipBytes() {
+        return peers.getMemoryBytes() + dead.getMemoryBytes() + evicted.getMemoryBytes();
+    }
+
+    /**
+     * Gets the number of peers evicted from the dead peers.
+     * 
+     * @return the number of evicted peers
+     */
+    public int getEvictedPeerCount() {
+        return this.evicted.size();
+    }
+
+    /**
+     * Gets the PartialView that keeps this Peer object in the overlay.
+     * 
+     * @return the PartialView, or <code>null</code> if every peer is known
+     */
+    public PartialView getOverlay() {
+        return this.overlay;
+    }
+
+    /**
+     * Gets the number of snippets this Peer object forwarded to other peers.
+     * 
+     * @return the number of forwarded snippets
+     */
+    public long getForwarded() {
+        return forwarded.sum();
+    }
+
+    /**
+     * Gets the SnippetDedup that drops this Peer object's duplicate snippets.
+     * 
+     * @return the SnippetDedup
+     */
+    public SnippetDedup getDedup() {
+        return this.dedup;
+    }
+
+    /**
+     * Gets the RetransmitBuffer that keeps this Peer object's unacknowledged
+     * snippets.
+     * 
+     * @return the RetransmitBuffer, or <code>null</code> if snippets are sent
+     *         once
+     */
+    public RetransmitBuffer getRetransmitBuffer() {
+        return this.retransmits;
+    }
+
+    /**
+     * Gets the AntiEntropy that repairs this Peer object's missed snippets.
+     * 
+     * @return the AntiEntropy, or <code>null</code> if histories are not
+     *         compared
+     */
+    public AntiEntropy getAntiEntropy() {
+        return this.entropy;
+    }
+
+    /**
+     * Gets the SnippetLog that keeps this Peer object's snippets on disk.
+     * 
+     * @return the SnippetLog, or <code>null</code> if snippets are kept on the
+     *         heap
+     */
+    public SnippetLog getSnippetLog() {
+        return this.log;
+    }
+
+    /**
+     * Gets the SendScheduler that paces this Peer object's messages.
+     * 
+     * @return the SendScheduler, or <code>null</code> if messages are sent at
+     *         once
+     */
+    public SendScheduler getSendScheduler() {
+        return this.sender;
+    }
+
+    /**
+     * Gets the RoundScheduler that runs this Peer object's periodic work.
+     * 
+     * @return the RoundScheduler
+     */
+    public RoundScheduler getScheduler() {
+        return this.scheduler;
+    }
+
+    /**
+     * Gets the location: IP and Port of this Peer object's UDP socket.
+     * 
+     * @return the PeerLocation of this Peer object
+     */
+    public PeerLocation getLocation() {
+        return this.location;
+    }
+
+    /**
+     * Gets the MessagePipeline that handles this Peer object's messages.
+     * 
+     * @return the MessagePipeline, or <code>null</code> if messages are handled on
+     *         the receive thread
+     */
+    public MessagePipeline getPipeline() {
+        return this.pipeline;
+    }
+
+    /**
+     * Gets the NioTransport that sends and receives this Peer object's messages.
+     * 
+     * @return the NioTransport, or <code>null</code> if a blocking socket is used
+     */
+    public NioTransport getTransport() {
+        return this.transport;
+    }
+
     /**
      * Sets a new timestamp for this Peer object's timestamp.
      * 
      * @param t the new timestamp
      */
     public void setTimestamp(int t) {
-        this.timestamp = t;
+        this.timestamp.set(t);
     }
 
     /**
@@ -604,7 +1716,7 @@ public class Peer {
      * @return the current timestamp
      */
     public int getTimestamp() {
-        return this.timestamp;
+        return this.timestamp.get();
     }
 
     /**
@@ -1,15 +1,34 @@
 package main.java;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+
 /**
  * PeerLocation is a class that represents the location: IP and Port of an
  * external peer in a peer-to-peer distributed messaging system.
+ * A PeerLocation with a dotted-quad IPv4 address also keeps the address and
+ * Port packed into a long, and its hash code is computed once. Canonical
+ * instances for packed addresses are shared through {@link #of(long)}, so the
+ * receive path does not create a new PeerLocation for every message.
+ * The resolved socket address of a PeerLocation is kept so that sending to a
+ * peer does not look up its IP address every time.
  * 
  * @author Rohan Amjad UCID: 30062188
  * @version 1.0
  * @since 1.0
  */
 public class PeerLocation {
+    // canonical PeerLocations by packed address
+    private static final PeerLocationCache CACHE = new PeerLocationCache(1 << 16);
+
     private String IP;
     private int port;
+    private long address;
+    private int hash;
+    private volatile InetSocketAddress socketAddress;
 
     /**
      * Class constructor that specifies the IP address and Port of this PeerLocation
@@ -21,6 +40,62 @@ public class PeerLocation {
     PeerLocation(String IP, int port) {
         this.IP = IP;
         this.port = port;
+        byte[] ip = IP.getBytes(StandardCharsets.US_ASCII);
+        long packedIP = MessageView.parseIP(ip, 0, ip.length);
+        this.address = packedIP < 0 || port < 0 || port > 65535 ? -1 : MessageView.pack((int) packedIP, port);
+        this.hash = computeHash();
+    }
+
+    /**
+     * Class constructor for a packed IPv4 address and Port.
+     * 
+     * @param address the address packed as <code>ip &lt;&lt; 16 | port</code>
+     */
+    private PeerLocation(long address) {
+        this.IP = MessageView.formatIP(MessageView.ipOf(address));
+        this.port = MessageView.portOf(address);
+        this.address = address;
+        this.hash = computeHash();
+    }
+
+    /**
+     * Gets the canonical PeerLocation for a packed IPv4 address and Port.
+     * 
+     * @param address the address packed as <code>ip &lt;&lt; 16 | port</code>
+     * @return the canonical PeerLocation
+     */
+    public static PeerLocation of(long address) {
+        PeerLocation p = CACHE.get(address);
+        if (p == null)
+            p = CACHE.intern(new PeerLocation(address));
+        return p;
+    }
+
+    /**
+     * Gets the canonical PeerLocation for an IP address and Port. IPv6 addresses
+     * are not cached.
+     * 
+     * @param address the IP address of the peer
+     * @param port    the Port of the peer
+     * @return the canonical PeerLocation
+     */
+    public static PeerLocation of(InetAddress address, int port) {
+        if (!(address instanceof Inet4Address))
+            return new PeerLocation(address.getHostAddress(), port);
+        return of(MessageView.pack(address, port));
+    }
+
+    /**
+     * Gets the canonical PeerLocation for an IP address and Port given as a
+     * String. Addresses that are not dotted-quad IPv4 are not cached.
+     * 
+     * @param IP   the IP of the peer
+     * @param port the Port of the peer
+     * @return the canonical PeerLocation
+     */
+    public static PeerLocation of(String IP, int port) {
+        PeerLocation p = new PeerLocation(IP, port);
+        return p.address < 0 ? p : of(p.address);
     }
 
     /**
@@ -41,6 +116,50 @@ public class PeerLocation {
         return this.port;
     }
 
+    /**
+     * Gets the IPv4 address and Port of this PeerLocation object packed into a
+     * long.
+     * 
+     * @return the address packed as <code>ip &lt;&lt; 16 | port</code>, or
+     *         <code>-1</code> if the IP is not a dotted-quad IPv4 address
+     */
+    public long getAddress() {
+        return this.address;
+    }
+
+    /**
+     * Gets the resolved socket address of this PeerLocation object, resolving it
+     * the first time it is needed. A packed IPv4 address is converted without a
+     * name service lookup.
+     * 
+     * @return the InetSocketAddress of this PeerLocation object
+     * @throws UnknownHostException if the IP address could not be resolved
+     */
+    public InetSocketAddress getSocketAddress() throws UnknownHostException {
+        InetSocketAddress s = this.socketAddress;
+        if (s == null) {
+            InetAddress ip;
+            if (address >= 0) {
+                int packedIP = MessageView.ipOf(address);
+                ip = InetAddress.getByAddress(new byte[] { (byte) (packedIP >>> 24), (byte) (packedIP >>> 16),
+                        (byte) (packedIP >>> 8), (byte) packedIP });
+            } else {
+                ip = InetAddress.getByName(IP);
+            }
+            s = new InetSocketAddress(ip, port);
+            this.socketAddress = s;
+        }
+        return s;
+    }
+
+    /**
+     * Drops the resolved socket address of this PeerLocation object, so that it
+     * is resolved again the next time it is needed.
+     */
+    public void invalidate() {
+        this.socketAddress = null;
+    }
+
     /**
      * Checks the equality of this PeerLocation object with another object.
      * This PeerLocation object is equal to another Object if the other Object is
@@ -61,6 +180,8 @@ public class PeerLocation {
         }
 
         PeerLocation p = (PeerLocation) o;
+        if (this.address >= 0 || p.address >= 0)
+            return this.address == p.address;
         return this.IP.equals(p.getIP()) && Integer.compare(this.port, p.getPort()) == 0;
 
     }
@@ -74,6 +195,18 @@ public class PeerLocation {
      */
     @Override
     public int hashCode() {
+        return this.hash;
+    }
+
+    /**
+     * Computes the hash code of this PeerLocation object from its packed address,
+     * or from its IP and Port if it has no packed address.
+     * 
+     * @return the hash code of this PeerLocation object
+     */
+    private int computeHash() {
+        if (address >= 0)
+            return Long.hashCode(address * 0x9E3779B97F4A7C15L);
         int hash = 17;
         hash = 31 * hash + IP.hashCode();
         hash = 31 * hash + port;
@@ -0,0 +1,78 @@
+package main.java;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * PeerLocationCache is a class that keeps one canonical PeerLocation for each
+ * packed IPv4 address and Port.
+ * The cache is a fixed-size direct-mapped table: each address has one slot, and
+ * a new address replaces whatever PeerLocation held its slot before. Looking up
+ * an address does not lock or allocate, and entries are replaced with a
+ * compare-and-set. The cache never grows past its capacity, and peers that are
+ * no longer seen are overwritten by the peers that are, so it keeps serving the
+ * current membership however many peers come and go.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class PeerLocationCache {
+    private final AtomicReferenceArray<PeerLocation> table;
+    private final int mask;
+
+    /**
+     * Class constructor that specifies the number of slots in this
+     * PeerLocationCache object.
+     *
+     * @param capacity the number of slots, which must be a power of two
+     */
+    PeerLocationCache(int capacity) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        this.table = new AtomicReferenceArray<PeerLocation>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Gets the canonical PeerLocation for a packed address.
+     *
+     * @param address the packed address
+     * @return the canonical PeerLocation, or <code>null</code> if there is none
+     */
+    public PeerLocation get(long address) {
+        PeerLocation p = table.get(slot(address));
+        return p != null && p.getAddress() == address ? p : null;
+    }
+
+    /**
+     * Makes a PeerLocation the canonical instance for its packed address, unless
+     * another thread already added one. Any other address in its slot is
+     * overwritten.
+     *
+     * @param p the PeerLocation to add, which must have a packed address
+     * @return the canonical PeerLocation for the address of <code>p</code>
+     */
+    public PeerLocation intern(PeerLocation p) {
+        long address = p.getAddress();
+        int index = slot(address);
+        PeerLocation current = table.get(index);
+        if (current != null && current.getAddress() == address)
+            return current;
+        if (table.compareAndSet(index, current, p))
+            return p;
+        // another thread replaced the slot first, possibly with this address
+        current = table.get(index);
+        return current != null && current.getAddress() == address ? current : p;
+    }
+
+    /**
+     * Gets the slot of a packed address.
+     *
+     * @param address the packed address
+     * @return the index of the slot
+     */
+    private int slot(long address) {
+        long h = address * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+}
@@ -0,0 +1,330 @@
+package main.java;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+/**
+ * PeerMetrics is a class that counts the messages a Peer object handles and how
+ * long handling them takes, and publishes them over JMX.
+ * The PeerMetrics class implements the PeerMetricsMBean interface.
+ * Counters are striped LongAdders so that receiver and worker threads can
+ * record a message without contending with each other.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class PeerMetrics implements PeerMetricsMBean {
+    private final Peer p;
+
+    // messages handled, indexed by MessageView type
+    private final LongAdder[] messages = new LongAdder[MessageView.TYPE_COUNT];
+    private final LongAdder parseFailures = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    // the receive rate is sampled this often
+    static final int RATE_MILLIS = 1000;
+
+    private long lastCount = 0;
+    private long lastRateTime = System.nanoTime();
+    private volatile double receiveRate = 0;
+
+    /**
+     * Class constructor that specifies the Peer object whose metrics are kept.
+     *
+     * @param p the Peer object whose metrics are kept
+     */
+    PeerMetrics(Peer p) {
+        this.p = p;
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registers this PeerMetrics object with the platform MBean server under
+     * <code>main.java:type=PeerMetrics,port=&lt;port&gt;</code>.
+     *
+     * @param port the UDP Port of the Peer object, which tells peers on the same
+     *             host apart
+     */
+    public void register(int port) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("main.java:type=PeerMetrics,port=" + port));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Samples the receive rate every <code>RATE_MILLIS</code> on a
+     * RoundScheduler until it is shut down.
+     *
+     * @param scheduler the RoundScheduler that samples the rate
+     */
+    public void start(RoundScheduler scheduler) {
+        scheduler.every(RATE_MILLIS, 0, this::sampleRate);
+    }
+
+    /**
+     * Sets the receive rate to the messages received per second since the last
+     * sample.
+     */
+    private void sampleRate() {
+        long count = parseFailures.sum();
+        for (LongAdder m : messages) {
+            count += m.sum();
+        }
+        long now = System.nanoTime();
+        receiveRate = (count - lastCount) * 1e9 / Math.max(1, now - lastRateTime);
+        lastCount = count;
+        lastRateTime = now;
+    }
+
+    /**
+     * Records a message that was handled.
+     *
+     * @param type  the MessageView type of the message
+     * @param nanos how long handling the message took in nanoseconds
+     */
+    public void recordMessage(int type, long nanos) {
+        messages[type].increment();
+        latency.record(nanos);
+    }
+
+    /**
+     * Records a message that did not follow the protocol.
+     */
+    public void recordParseFailure() {
+        parseFailures.increment();
+    }
+
+    @Override
+    public long getPeerMessages() {
+        return messages[MessageView.TYPE_PEER].sum();
+    }
+
+    @Override
+    public long getSnipMessages() {
+        return messages[MessageView.TYPE_SNIP].sum();
+    }
+
+    @Override
+    public long getStopMessages() {
+        return messages[MessageView.TYPE_STOP].sum();
+    }
+
+    @Override
+    public long getFragMessages() {
+        return messages[MessageView.TYPE_FRAG].sum();
+    }
+
+    @Override
+    public long getPullMessages() {
+        return messages[MessageView.TYPE_PULL].sum();
+    }
+
+    @Override
+    public long getPeerListMessages() {
+        return messages[MessageView.TYPE_PEERS].sum();
+    }
+
+    @Override
+    public long getViewMessages() {
+        return messages[MessageView.TYPE_VIEW].sum();
+    }
+
+    @Override
+    public long getAcksMessages() {
+        return messages[MessageView.TYPE_ACKS].sum();
+    }
+
+    @Override
+    public long getFwrdMessages() {
+        return messages[MessageView.TYPE_FWRD].sum();
+    }
+
+    @Override
+    public long getDgstMessages() {
+        return messages[MessageView.TYPE_DGST].sum();
+    }
+
+    @Override
+    public long getWantMessages() {
+        return messages[MessageView.TYPE_WANT].sum();
+    }
+
+    @Override
+    public long getParseFailures() {
+        return parseFailures.sum();
+    }
+
+    @Override
+    public int getLivePeers() {
+        return p.getPeerCount();
+    }
+
+    @Override
+    public int getDeadPeers() {
+        return p.getDeadPeerCount();
+    }
+
+    @Override
+    public int getSuspectedPeers() {
+        FailureDetector detector = p.getFailureDetector();
+        return detector == null ? 0 : detector.getSuspectCount();
+    }
+
+    @Override
+    public int getEvictedPeers() {
+        return p.getEvictedPeerCount();
+    }
+
+    @Override
+    public long getMembershipBytes() {
+        return p.getMembershipBytes();
+    }
+
+    @Override
+    public long getProbeMessages() {
+        return messages[MessageView.TYPE_PING].sum() + messages[MessageView.TYPE_PONG].sum()
+                + messages[MessageView.TYPE_PREQ].sum();
+    }
+
+    @Override
+    public long getRounds() {
+        return p.getScheduler().getRounds();
+    }
+
+    @Override
+    public long getOverrunRounds() {
+        return p.getScheduler().getOverrun();
+    }
+
+    @Override
+    public long getSkippedRounds() {
+        return p.getScheduler().getSkipped();
+    }
+
+    @Override
+    public int getSendQueueDepth() {
+        SendScheduler sender = p.getSendScheduler();
+        return sender == null ? 0 : sender.getDepth();
+    }
+
+    @Override
+    public long getSendDropped() {
+        SendScheduler sender = p.getSendScheduler();
+        return sender == null ? 0 : sender.getDropped();
+    }
+
+    @Override
+    public long getTransportDropped() {
+        NioTransport transport = p.getTransport();
+        return transport == null ? 0 : transport.getDropped();
+    }
+
+    @Override
+    public long getRetransmissions() {
+        RetransmitBuffer retransmits = p.getRetransmitBuffer();
+        return retransmits == null ? 0 : retransmits.getRetransmitted();
+    }
+
+    @Override
+    public long getAbandonedSnippets() {
+        RetransmitBuffer retransmits = p.getRetransmitBuffer();
+        return retransmits == null ? 0 : retransmits.getAbandoned();
+    }
+
+    @Override
+    public long getRetransmitBytes() {
+        RetransmitBuffer retransmits = p.getRetransmitBuffer();
+        return retransmits == null ? 0 : retransmits.getBytes();
+    }
+
+    @Override
+    public long getDuplicateSnippets() {
+        return p.getDedup().getDuplicates();
+    }
+
+    @Override
+    public long getDedupBytes() {
+        return p.getDedup().getMemoryBytes();
+    }
+
+    @Override
+    public long getForwardedSnippets() {
+        return p.getForwarded();
+    }
+
+    @Override
+    public long getRepairedSnippets() {
+        AntiEntropy entropy = p.getAntiEntropy();
+        return entropy == null ? 0 : entropy.getRepaired();
+    }
+
+    @Override
+    public long getLogBytes() {
+        SnippetLog log = p.getSnippetLog();
+        return log == null ? 0 : log.getBytes();
+    }
+
+    @Override
+    public long getLogIndexBytes() {
+        SnippetLog log = p.getSnippetLog();
+        return log == null ? 0 : log.getIndexBytes();
+    }
+
+    @Override
+    public double getReceiveRate() {
+        return receiveRate;
+    }
+
+    @Override
+    public double getHandlerLatencyP50Micros() {
+        return latency.getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getHandlerLatencyP99Micros() {
+        return latency.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public int getRingDepth() {
+        MessagePipeline pipeline = p.getPipeline();
+        return pipeline == null ? 0 : pipeline.getRingDepth();
+    }
+
+    @Override
+    public long getRingDropped() {
+        MessagePipeline pipeline = p.getPipeline();
+        return pipeline == null ? 0 : pipeline.getDropped();
+    }
+
+    @Override
+    public double getWorkerUtilisation() {
+        MessagePipeline pipeline = p.getPipeline();
+        if (pipeline == null)
+            return 0;
+        double total = 0;
+        double[] utilisation = pipeline.getWorkerUtilisation();
+        for (double u : utilisation) {
+            total += u;
+        }
+        return total / utilisation.length;
+    }
+
+    @Override
+    public long getReassembled() {
+        return p.getReassemblyCache().getCompleted();
+    }
+
+    @Override
+    public long getReassemblyExpired() {
+        return p.getReassemblyCache().getExpired();
+    }
+}
@@ -0,0 +1,308 @@
+package main.java;
+
+/**
+ * PeerMetricsMBean is the management interface through which a Peer object's
+ * message handling metrics are published over JMX.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public interface PeerMetricsMBean {
+
+    /**
+     * Gets the number of peer messages handled.
+     *
+     * @return the number of peer messages handled
+     */
+    long getPeerMessages();
+
+    /**
+     * Gets the number of snip messages handled.
+     *
+     * @return the number of snip messages handled
+     */
+    long getSnipMessages();
+
+    /**
+     * Gets the number of stop messages handled.
+     *
+     * @return the number of stop messages handled
+     */
+    long getStopMessages();
+
+    /**
+     * Gets the number of frag messages handled.
+     *
+     * @return the number of frag messages handled
+     */
+    long getFragMessages();
+
+    /**
+     * Gets the number of pull messages handled.
+     *
+     * @return the number of pull messages handled
+     */
+    long getPullMessages();
+
+    /**
+     * Gets the number of peer lists handled, text and bulk.
+     *
+     * @return the number of peer lists handled
+     */
+    long getPeerListMessages();
+
+    /**
+     * Gets the number of view messages handled.
+     *
+     * @return the number of view messages handled
+     */
+    long getViewMessages();
+
+    /**
+     * Gets the number of acks messages handled.
+     *
+     * @return the number of acks messages handled
+     */
+    long getAcksMessages();
+
+    /**
+     * Gets the number of fwrd messages handled.
+     *
+     * @return the number of fwrd messages handled
+     */
+    long getFwrdMessages();
+
+    /**
+     * Gets the number of dgst messages handled.
+     *
+     * @return the number of dgst messages handled
+     */
+    long getDgstMessages();
+
+    /**
+     * Gets the number of want messages handled.
+     *
+     * @return the number of want messages handled
+     */
+    long getWantMessages();
+
+    /**
+     * Gets the number of messages that did not follow the protocol.
+     *
+     * @return the number of messages that did not follow the protocol
+     */
+    long getParseFailures();
+
+    /**
+     * Gets the number of peers considered alive.
+     *
+     * @return the number of live peers
+     */
+    int getLivePeers();
+
+    /**
+     * Gets the number of peers that timed out.
+     *
+     * @return the number of dead peers
+     */
+    int getDeadPeers();
+
+    /**
+     * Gets the number of peers suspected by the failure detector.
+     *
+     * @return the number of suspected peers
+     */
+    int getSuspectedPeers();
+
+    /**
+     * Gets the number of peers evicted from the full table of dead peers.
+     *
+     * @return the number of evicted peers
+     */
+    int getEvictedPeers();
+
+    /**
+     * Gets the number of bytes of heap used by the tables of live, dead and
+     * evicted peers.
+     *
+     * @return the number of bytes used by the membership tables
+     */
+    long getMembershipBytes();
+
+    /**
+     * Gets the number of ping, pong and preq messages handled.
+     *
+     * @return the number of probe messages handled
+     */
+    long getProbeMessages();
+
+    /**
+     * Gets the number of periodic rounds run.
+     *
+     * @return the number of periodic rounds run
+     */
+    long getRounds();
+
+    /**
+     * Gets the number of periodic rounds still running when the next round was
+     * due.
+     *
+     * @return the number of overrun rounds
+     */
+    long getOverrunRounds();
+
+    /**
+     * Gets the number of periodic rounds not run because an earlier round
+     * overran.
+     *
+     * @return the number of skipped rounds
+     */
+    long getSkippedRounds();
+
+    /**
+     * Gets the number of messages waiting in the SendScheduler.
+     *
+     * @return the number of messages waiting to be sent
+     */
+    int getSendQueueDepth();
+
+    /**
+     * Gets the number of messages dropped because a SendScheduler lane was full.
+     *
+     * @return the number of messages dropped before they were sent
+     */
+    long getSendDropped();
+
+    /**
+     * Gets the number of messages dropped because the NioTransport failed to send
+     * them.
+     *
+     * @return the number of messages the NioTransport dropped
+     */
+    long getTransportDropped();
+
+    /**
+     * Gets the number of times a snippet was sent again because it was not
+     * acknowledged in time.
+     *
+     * @return the number of snippet retransmissions
+     */
+    long getRetransmissions();
+
+    /**
+     * Gets the number of snippets given up without an ack.
+     *
+     * @return the number of abandoned snippets
+     */
+    long getAbandonedSnippets();
+
+    /**
+     * Gets the number of bytes of snippets waiting to be acknowledged.
+     *
+     * @return the number of bytes in the RetransmitBuffer
+     */
+    long getRetransmitBytes();
+
+    /**
+     * Gets the number of snippets dropped because they were received before.
+     *
+     * @return the number of duplicate snippets
+     */
+    long getDuplicateSnippets();
+
+    /**
+     * Gets the number of bytes of heap used to remember received snippets.
+     *
+     * @return the number of bytes used by the SnippetDedup
+     */
+    long getDedupBytes();
+
+    /**
+     * Gets the number of received snippets forwarded to other peers.
+     *
+     * @return the number of forwarded snippets
+     */
+    long getForwardedSnippets();
+
+    /**
+     * Gets the number of snippets sent to peers that were missing them.
+     *
+     * @return the number of snippets repaired by the AntiEntropy
+     */
+    long getRepairedSnippets();
+
+    /**
+     * Gets the number of bytes of the segment files of the snippet log.
+     *
+     * @return the number of bytes on disk, or <code>0</code> if snippets are
+     *         kept on the heap
+     */
+    long getLogBytes();
+
+    /**
+     * Gets the number of bytes of heap used by the index of the snippet log.
+     *
+     * @return the number of bytes used by the index of the SnippetLog
+     */
+    long getLogIndexBytes();
+
+    /**
+     * Gets the messages received per second over the last sampling period.
+     * Reading the rate does not change it.
+     *
+     * @return the messages received per second over the last sampling period
+     */
+    double getReceiveRate();
+
+    /**
+     * Gets the median time to handle a message in microseconds.
+     *
+     * @return the median time to handle a message in microseconds
+     */
+    double getHandlerLatencyP50Micros();
+
+    /**
+     * Gets the 99th percentile time to handle a message in microseconds.
+     *
+     * @return the 99th percentile time to handle a message in microseconds
+     */
+    double getHandlerLatencyP99Micros();
+
+    /**
+     * Gets the number of messages waiting in the MessagePipeline rings.
+     *
+     * @return the number of messages waiting in the MessagePipeline rings
+     */
+    int getRingDepth();
+
+    /**
+     * Gets the number of messages dropped because a MessagePipeline ring was
+     * full.
+     *
+     * @return the number of messages dropped because a MessagePipeline ring was
+     *         full
+     */
+    long getRingDropped();
+
+    /**
+     * Gets the mean utilisation of the MessagePipeline workers.
+     *
+     * @return the mean utilisation of the MessagePipeline workers
+     */
+    double getWorkerUtilisation();
+
+    /**
+     * Gets the number of snippets reassembled from frag messages.
+     *
+     * @return the number of snippets reassembled from frag messages
+     */
+    long getReassembled();
+
+    /**
+     * Gets the number of partly received snippets that expired.
+     *
+     * @return the number of partly received snippets that expired
+     */
+    long getReassemblyExpired();
+}
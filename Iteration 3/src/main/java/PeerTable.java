@@ -0,0 +1,593 @@
+package main.java;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * PeerTable is a class that stores the last time each known peer was heard
+ * from, keyed by the peer's IPv4 address and Port packed as
+ * <code>ip &lt;&lt; 16 | port</code>.
+ * Entries live in flat arrays with open addressing and linear probing, so a
+ * peer costs four longs per slot instead of a map node, a PeerLocation and a
+ * Date. PeerTableBenchmark compares the two.
+ * Writers are serialized on the table; lookups and iteration do not lock or
+ * allocate and always see a complete array. A slot is hidden while it is
+ * rewritten and readers check its key again after reading its time, so a key
+ * is never paired with the time of another peer, although a reader may miss an
+ * entry that is being moved by a concurrent removal. The size and every
+ * iteration are therefore approximate while the table is being changed.
+ * Every peer added is given the next version of the table and the most recent
+ * changes are kept in a ring, so the peers added since a version can be listed
+ * without sending the whole table. A peer can also be given a new version when
+ * its last-seen time moves on, so that the peers still being heard from are
+ * listed again from time to time. Each entry also records the version of the
+ * table last sent to that peer.
+ * A table can be given a most number of peers. Adding a peer to a full table
+ * first evicts the peers that have been silent longest, a fraction of the table
+ * at a time so that the cost of finding them is spread over many additions.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class PeerTable {
+    // marks an empty slot: 0.0.0.0:0 is never a peer
+    private static final long EMPTY = 0;
+    // marks a slot being rewritten: packed addresses are never negative
+    private static final long MOVING = -1;
+    // the number of recent changes kept for listing the changes since a version
+    static final int CHANGE_LOG = 256;
+    // a full table evicts this fraction of its peers at once
+    static final int EVICT_FRACTION = 16;
+    // the most slots looked at to pick one peer; a table is at least a quarter full once it has grown
+    static final int PICK_SLOTS = 64;
+
+    /**
+     * Visitor is called for every entry of a PeerTable.
+     */
+    public interface Visitor {
+        /**
+         * Visits one entry.
+         *
+         * @param address  the packed address of the peer
+         * @param lastSeen the time the peer was last heard from in milliseconds
+         */
+        void visit(long address, long lastSeen);
+    }
+
+    /**
+     * Slots holds the arrays of a PeerTable, which are replaced together when
+     * the table grows.
+     */
+    private static class Slots {
+        private final AtomicLongArray keys;
+        private final AtomicLongArray lastSeen;
+        private final AtomicLongArray version;
+        private final AtomicLongArray synced;
+        private final int mask;
+
+        Slots(int capacity) {
+            this.keys = new AtomicLongArray(capacity);
+            this.lastSeen = new AtomicLongArray(capacity);
+            this.version = new AtomicLongArray(capacity);
+            this.synced = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+        }
+
+        /**
+         * Copies the values of one slot into another.
+         *
+         * @param from the slot to copy
+         * @param to   the slot to copy into
+         * @param into the slots holding <code>to</code>
+         */
+        void copy(int from, Slots into, int to) {
+            into.keys.set(to, MOVING);
+            into.lastSeen.set(to, lastSeen.get(from));
+            into.version.set(to, version.get(from));
+            into.synced.set(to, synced.get(from));
+            into.keys.set(to, keys.get(from));
+        }
+    }
+
+    private volatile Slots slots;
+    private volatile int size = 0;
+    private volatile long version = 0;
+    // the address added at each of the last CHANGE_LOG versions
+    private final long[] changes = new long[CHANGE_LOG];
+    private final int maxSize;
+    private final Visitor evicted;
+
+    /**
+     * Class constructor that specifies the initial capacity of this PeerTable
+     * object, which holds any number of peers.
+     *
+     * @param capacity the number of slots, which must be a power of two
+     */
+    PeerTable(int capacity) {
+        this(capacity, 0, null);
+    }
+
+    /**
+     * Class constructor that specifies the initial capacity and the most number
+     * of peers of this PeerTable object.
+     *
+     * @param capacity the number of slots, which must be a power of two
+     * @param maxSize  the most number of peers, or <code>0</code> for no limit
+     * @param evicted  the Visitor called for each peer evicted, while the lock
+     *                 of the table is held, or <code>null</code>
+     */
+    PeerTable(int capacity, int maxSize, Visitor evicted) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        this.slots = new Slots(capacity);
+        this.maxSize = maxSize;
+        this.evicted = evicted;
+    }
+
+    /**
+     * Records that a peer was heard from, adding it if it is not known.
+     *
+     * @param address the packed address of the peer
+     * @param now     the current time in milliseconds
+     * @return <code>true</code> if the peer was added
+     */
+    public synchronized boolean touch(long address, long now) {
+        Slots s = slots;
+        int i = find(s, address);
+        if (s.keys.get(i) == address) {
+            s.lastSeen.set(i, now);
+            return false;
+        }
+        insert(i, address, now);
+        return true;
+    }
+
+    /**
+     * Records that a peer was heard from at a given time, adding it if it is not
+     * known. The last-seen time of a known peer only moves forward. Each time it
+     * moves into a later period, the peer is given the next version of the table
+     * as if it had been added again.
+     *
+     * @param address the packed address of the peer
+     * @param time    the time in milliseconds the peer was heard from
+     * @param period  the length of a period in milliseconds, or <code>0</code>
+     *                to never give a known peer a new version
+     * @return <code>true</code> if the peer was added
+     */
+    public synchronized boolean advance(long address, long time, long period) {
+        Slots s = slots;
+        int i = find(s, address);
+        if (s.keys.get(i) != address) {
+            insert(i, address, time);
+            return true;
+        }
+        long old = s.lastSeen.get(i);
+        if (time <= old)
+            return false;
+        s.lastSeen.set(i, time);
+        if (period > 0 && time / period != old / period) {
+            version++;
+            changes[(int) (version % CHANGE_LOG)] = address;
+            s.version.set(i, version);
+        }
+        return false;
+    }
+
+    /**
+     * Adds a peer if it is not known. The last-seen time of a known peer is not
+     * changed.
+     *
+     * @param address the packed address of the peer
+     * @param now     the current time in milliseconds
+     * @return <code>true</code> if the peer was added
+     */
+    public synchronized boolean putIfAbsent(long address, long now) {
+        Slots s = slots;
+        int i = find(s, address);
+        if (s.keys.get(i) == address)
+            return false;
+        insert(i, address, now);
+        return true;
+    }
+
+    /**
+     * Adds every peer in an array that is not known, holding the lock of the
+     * table once for the whole array.
+     *
+     * @param addresses the packed addresses of the peers
+     * @param count     the number of addresses to add
+     * @param now       the current time in milliseconds
+     * @param added     the Visitor called for each peer that was added, while the
+     *                  lock of the table is held
+     * @return the number of peers that were added
+     */
+    public synchronized int putAllIfAbsent(long[] addresses, int count, long now, Visitor added) {
+        int n = 0;
+        for (int a = 0; a < count; a++) {
+            if (putIfAbsent(addresses[a], now)) {
+                added.visit(addresses[a], now);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Removes a peer if it has not been heard from since a given time.
+     *
+     * @param address the packed address of the peer
+     * @param since   the time in milliseconds the peer must have been heard from
+     *                at or after to be kept
+     * @return <code>true</code> if the peer was removed
+     */
+    public synchronized boolean removeIfSilent(long address, long since) {
+        long seen = lastSeen(address);
+        return seen >= 0 && seen < since && remove(address);
+    }
+
+    /**
+     * Gets the last time a peer was heard from.
+     *
+     * @param address the packed address of the peer
+     * @return the time in milliseconds, or <code>-1</code> if the peer is not
+     *         known
+     */
+    public long lastSeen(long address) {
+        while (true) {
+            Slots s = slots;
+            int i = find(s, address);
+            if (s.keys.get(i) != address)
+                return -1;
+            long time = seen(s, i, address);
+            // a negative time means the entry moved while it was read, so look again
+            if (time >= 0)
+                return time;
+        }
+    }
+
+    /**
+     * Checks if a peer is known.
+     *
+     * @param address the packed address of the peer
+     * @return <code>true</code> if the peer is known
+     */
+    public boolean contains(long address) {
+        return lastSeen(address) >= 0;
+    }
+
+    /**
+     * Removes a peer. The entries after it in its probe sequence are shifted
+     * back so that no tombstones are left behind.
+     *
+     * @param address the packed address of the peer
+     * @return <code>true</code> if the peer was known
+     */
+    public synchronized boolean remove(long address) {
+        Slots s = slots;
+        int i = find(s, address);
+        if (s.keys.get(i) != address)
+            return false;
+
+        int hole = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & s.mask;
+            long key = s.keys.get(j);
+            if (key == EMPTY)
+                break;
+            int home = slot(key, s.mask);
+            // move the entry back if its home slot is not between the hole and j
+            if (((j - home) & s.mask) >= ((j - hole) & s.mask)) {
+                s.copy(j, s, hole);
+                hole = j;
+            }
+        }
+        s.keys.set(hole, EMPTY);
+        size--;
+        return true;
+    }
+
+    /**
+     * Gets the number of peers in this PeerTable object. The count is read
+     * without locking, so it may not yet include a peer being added or may
+     * still include one being removed.
+     *
+     * @return the number of peers
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Calls a Visitor for every peer in this PeerTable object.
+     *
+     * @param v the Visitor to call
+     */
+    public void forEach(Visitor v) {
+        Slots s = slots;
+        for (int i = 0; i <= s.mask; i++) {
+            long key = s.keys.get(i);
+            if (key == EMPTY || key == MOVING)
+                continue;
+            long time = seen(s, i, key);
+            if (time >= 0)
+                v.visit(key, time);
+        }
+    }
+
+    /**
+     * Copies the addresses of the peers heard from at or after a given time into
+     * an array.
+     *
+     * @param into  the array to copy the addresses into
+     * @param since the earliest last-seen time in milliseconds to include
+     * @return the number of addresses copied, which is at most the length of
+     *         <code>into</code>
+     */
+    public int collect(long[] into, long since) {
+        Slots s = slots;
+        int n = 0;
+        for (int i = 0; i <= s.mask && n < into.length; i++) {
+            long key = s.keys.get(i);
+            if (key != EMPTY && key != MOVING && seen(s, i, key) >= since)
+                into[n++] = key;
+        }
+        return n;
+    }
+
+    /**
+     * Picks peers heard from at or after a given time uniformly at random with
+     * reservoir sampling, in one pass over the table and without allocating.
+     *
+     * @param into   the array to copy the addresses into, whose length is the
+     *               number of peers wanted
+     * @param since  the earliest last-seen time in milliseconds to include
+     * @param random the source of randomness
+     * @return the number of addresses copied, which is fewer than the length of
+     *         <code>into</code> only if there are not enough live peers
+     */
+    public int sample(long[] into, long since, Random random) {
+        Slots s = slots;
+        int seen = 0;
+        for (int i = 0; i <= s.mask; i++) {
+            long key = s.keys.get(i);
+            if (key == EMPTY || key == MOVING || seen(s, i, key) < since)
+                continue;
+            if (seen < into.length) {
+                into[seen] = key;
+            } else {
+                int j = random.nextInt(seen + 1);
+                if (j < into.length)
+                    into[j] = key;
+            }
+            seen++;
+        }
+        return Math.min(seen, into.length);
+    }
+
+    /**
+     * Picks a peer heard from at or after a given time by starting at a random
+     * slot and taking the first such peer after it. Unlike {@link #sample}, at
+     * most <code>PICK_SLOTS</code> slots are looked at however large the table
+     * is. A peer that follows a long run of empty slots is picked more often, so
+     * the pick is close to but not exactly uniform.
+     *
+     * @param since  the earliest last-seen time in milliseconds to include
+     * @param random the source of randomness
+     * @return the packed address of the peer, or <code>0</code> if none was
+     *         found
+     */
+    public long pick(long since, Random random) {
+        Slots s = slots;
+        int i = random.nextInt(s.mask + 1);
+        for (int a = 0; a < PICK_SLOTS && a <= s.mask; a++) {
+            long key = s.keys.get(i);
+            if (key != EMPTY && key != MOVING && seen(s, i, key) >= since)
+                return key;
+            i = (i + 1) & s.mask;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Gets the number of bytes of heap used by the arrays of this PeerTable
+     * object.
+     *
+     * @return the number of bytes used
+     */
+    public long getMemoryBytes() {
+        return (slots.mask + 1L) * 4 * Long.BYTES + CHANGE_LOG * Long.BYTES;
+    }
+
+    /**
+     * Gets the version of this PeerTable object, which is the number of times a
+     * peer has been added to it or given a new version.
+     *
+     * @return the current version
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Gets the version of this PeerTable object that was last sent to a peer.
+     *
+     * @param address the packed address of the peer
+     * @return the version, or <code>0</code> if the table was never sent to the
+     *         peer or the peer is not known
+     */
+    public synchronized long getSynced(long address) {
+        Slots s = slots;
+        int i = find(s, address);
+        return s.keys.get(i) == address ? s.synced.get(i) : 0;
+    }
+
+    /**
+     * Records the version of this PeerTable object that was sent to a peer.
+     *
+     * @param address the packed address of the peer
+     * @param version the version that was sent
+     */
+    public synchronized void setSynced(long address, long version) {
+        Slots s = slots;
+        int i = find(s, address);
+        if (s.keys.get(i) == address)
+            s.synced.set(i, version);
+    }
+
+    /**
+     * Copies the addresses of the peers added or given a new version after a
+     * version and heard from at or after a given time into an array.
+     *
+     * @param since     the version to list the changes after
+     * @param into      the array to copy the addresses into
+     * @param liveSince the earliest last-seen time in milliseconds to include
+     * @return the number of addresses copied, or <code>-1</code> if the version
+     *         is older than the kept changes or the changes do not fit in
+     *         <code>into</code>
+     */
+    public synchronized int changedSince(long since, long[] into, long liveSince) {
+        if (since < version - CHANGE_LOG || version - since > into.length)
+            return -1;
+        Slots s = slots;
+        int n = 0;
+        for (long v = since + 1; v <= version; v++) {
+            long address = changes[(int) (v % CHANGE_LOG)];
+            int i = find(s, address);
+            // skip peers that were removed, or removed and added again later
+            if (s.keys.get(i) == address && s.version.get(i) == v && s.lastSeen.get(i) >= liveSince)
+                into[n++] = address;
+        }
+        return n;
+    }
+
+    /**
+     * Reads the time of a slot and checks that the slot still holds the key
+     * read before it. Since a slot is marked as moving before its time is
+     * rewritten, a time read before the key is read again belongs to that key.
+     *
+     * @param s   the slots to read
+     * @param i   the index of the slot
+     * @param key the key read from the slot
+     * @return the time in milliseconds, or <code>-1</code> if the slot no longer
+     *         holds the key
+     */
+    private static long seen(Slots s, int i, long key) {
+        long time = s.lastSeen.get(i);
+        return s.keys.get(i) == key ? time : -1;
+    }
+
+    /**
+     * Finds the slot holding an address, or the empty slot where it would be
+     * inserted.
+     *
+     * @param s       the slots to search
+     * @param address the packed address
+     * @return the index of the slot
+     */
+    private static int find(Slots s, long address) {
+        int i = slot(address, s.mask);
+        while (true) {
+            long key = s.keys.get(i);
+            if (key == address || key == EMPTY)
+                return i;
+            i = (i + 1) & s.mask;
+        }
+    }
+
+    /**
+     * Inserts a new entry into an empty slot, growing the table first if it
+     * would become more than half full.
+     *
+     * @param i       the index of the empty slot found for the address
+     * @param address the packed address
+     * @param now     the last-seen time in milliseconds
+     */
+    private void insert(int i, long address, long now) {
+        if (address == EMPTY)
+            throw new IllegalArgumentException("0.0.0.0:0 is not a peer address");
+        if (maxSize > 0 && size >= maxSize) {
+            evictSilent();
+            i = find(slots, address);
+        }
+        Slots s = slots;
+        if ((size + 1) * 2 > s.mask + 1) {
+            s = grow(s);
+            i = find(s, address);
+        }
+        version++;
+        changes[(int) (version % CHANGE_LOG)] = address;
+        // the time is written before the key so readers never see a new key without it
+        s.lastSeen.set(i, now);
+        s.version.set(i, version);
+        s.synced.set(i, 0);
+        s.keys.set(i, address);
+        size++;
+    }
+
+    /**
+     * Removes the <code>maxSize / EVICT_FRACTION</code> peers that have been
+     * silent longest, and at least one.
+     */
+    private void evictSilent() {
+        Slots s = slots;
+        int count = Math.max(1, maxSize / EVICT_FRACTION);
+        long[] times = new long[size];
+        int n = 0;
+        for (int i = 0; i <= s.mask && n < times.length; i++) {
+            if (s.keys.get(i) != EMPTY)
+                times[n++] = s.lastSeen.get(i);
+        }
+        Arrays.sort(times, 0, n);
+        long cutoff = times[Math.min(count, n) - 1];
+
+        // entries are picked before any is removed, since removing moves entries
+        long[] victims = new long[count];
+        long[] lastSeen = new long[count];
+        int v = 0;
+        for (int i = 0; i <= s.mask && v < count; i++) {
+            long key = s.keys.get(i);
+            if (key != EMPTY && s.lastSeen.get(i) <= cutoff) {
+                victims[v] = key;
+                lastSeen[v++] = s.lastSeen.get(i);
+            }
+        }
+        for (int a = 0; a < v; a++) {
+            remove(victims[a]);
+            if (evicted != null)
+                evicted.visit(victims[a], lastSeen[a]);
+        }
+    }
+
+    /**
+     * Copies every entry into slots of twice the capacity and publishes them.
+     *
+     * @param old the current slots
+     * @return the new slots
+     */
+    private Slots grow(Slots old) {
+        Slots s = new Slots((old.mask + 1) * 2);
+        for (int i = 0; i <= old.mask; i++) {
+            long key = old.keys.get(i);
+            if (key != EMPTY) {
+                old.copy(i, s, find(s, key));
+            }
+        }
+        slots = s;
+        return s;
+    }
+
+    /**
+     * Gets the home slot of a packed address.
+     *
+     * @param address the packed address
+     * @param mask    the capacity of the table minus one
+     * @return the index of the home slot
+     */
+    private static int slot(long address, int mask) {
+        long h = address * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+}
@@ -0,0 +1,263 @@
+package main.java;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * ReassemblyCache is a class that splits snippets that are too large for one
+ * datagram into frag messages and puts received frag messages back together.
+ * Partly received snippets are kept by their source peer and timestamp, and each
+ * piece by its fragment index. The cache holds at most a fixed number of bytes
+ * and drops snippets whose pieces have not all arrived within a timeout; the
+ * oldest snippets are dropped first. Each snippet and each piece is charged a
+ * fixed overhead on top of its bytes, so that many tiny pieces cannot hold more
+ * heap than the cap allows.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class ReassemblyCache {
+    // the largest datagram a peer receives
+    static final int MAX_DATAGRAM = 1024;
+    // the room left in a datagram for snippet bytes after the longest frag header
+    static final int FRAGMENT_PAYLOAD = MAX_DATAGRAM - 32;
+    // the most fragments a snippet can be split into
+    static final int MAX_FRAGMENTS = 64;
+    // the heap charged for a partly received snippet besides its pieces: its key, entry and map node
+    static final int ENTRY_OVERHEAD = 128;
+    // the heap charged for each expected piece besides its bytes: its array header and reference
+    static final int FRAGMENT_OVERHEAD = 24;
+
+    private final long maxBytes;
+    private final long timeoutMillis;
+    private final LinkedHashMap<Key, Entry> partial = new LinkedHashMap<Key, Entry>();
+    private long bytes = 0;
+
+    private long completed = 0;
+    private long expired = 0;
+    private long evicted = 0;
+    private long rejected = 0;
+
+    /**
+     * Key identifies a snippet by its packed source address and timestamp.
+     */
+    private static class Key {
+        private final long source;
+        private final int timestamp;
+
+        Key(long source, int timestamp) {
+            this.source = source;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return source == k.source && timestamp == k.timestamp;
+        }
+
+        @Override
+        public int hashCode() {
+            // mixed by hand so that hashing boxes nothing
+            long h = (source * 31 + timestamp) * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * Entry holds the pieces of one partly received snippet.
+     */
+    private static class Entry {
+        private final byte[][] pieces;
+        private final long created;
+        private int received = 0;
+        private int bytes = 0;
+        // the bytes and overheads charged against the cap
+        private int charged;
+
+        Entry(int count, long created) {
+            this.pieces = new byte[count][];
+            this.created = created;
+            this.charged = ENTRY_OVERHEAD + count * FRAGMENT_OVERHEAD;
+        }
+    }
+
+    /**
+     * Class constructor that specifies the memory cap and timeout of this
+     * ReassemblyCache object.
+     *
+     * @param maxBytes      the most bytes of partly received snippets to keep
+     * @param timeoutMillis how long to wait for all pieces of a snippet
+     */
+    ReassemblyCache(long maxBytes, long timeoutMillis) {
+        this.maxBytes = maxBytes;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Splits the content of a snippet into frag messages that each fit in one
+     * datagram.
+     *
+     * @param timestamp the timestamp of the snippet
+     * @param content   the content of the snippet
+     * @return the frag messages, in order
+     * @throws IllegalArgumentException if the content needs more than
+     *                                  <code>MAX_FRAGMENTS</code> pieces
+     */
+    public static List<byte[]> fragment(int timestamp, String content) {
+        byte[] data = content.getBytes();
+        int count = (data.length + FRAGMENT_PAYLOAD - 1) / FRAGMENT_PAYLOAD;
+        if (count > MAX_FRAGMENTS)
+            throw new IllegalArgumentException("Snippet of " + data.length + " bytes is too large to send");
+
+        List<byte[]> fragments = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] header = ("frag" + timestamp + " " + i + " " + count + " ").getBytes();
+            int length = Math.min(FRAGMENT_PAYLOAD, data.length - i * FRAGMENT_PAYLOAD);
+            byte[] fragment = new byte[header.length + length];
+            System.arraycopy(header, 0, fragment, 0, header.length);
+            System.arraycopy(data, i * FRAGMENT_PAYLOAD, fragment, header.length, length);
+            fragments.add(fragment);
+        }
+        return fragments;
+    }
+
+    /**
+     * Adds the frag message that a MessageView is pointing at. This method can
+     * be called from any thread.
+     *
+     * @param source the packed address the frag message was sent from
+     * @param view   the MessageView pointing at a frag message
+     * @param data   the buffer the MessageView parsed
+     * @return the content of the snippet if this was its last missing piece,
+     *         otherwise <code>null</code>
+     */
+    public synchronized String add(long source, MessageView view, byte[] data) {
+        long now = System.currentTimeMillis();
+        expire(now);
+
+        int count = view.getFragmentCount();
+        int index = view.getFragmentIndex();
+        int length = view.getContentEnd() - view.getContentStart();
+        if (count > MAX_FRAGMENTS || length <= 0 || length > FRAGMENT_PAYLOAD) {
+            rejected++;
+            return null;
+        }
+
+        Key key = new Key(source, view.getTimestamp());
+        Entry entry = partial.get(key);
+        if (entry == null) {
+            entry = new Entry(count, now);
+            partial.put(key, entry);
+            bytes += entry.charged;
+        } else if (entry.pieces.length != count) {
+            rejected++;
+            return null;
+        }
+        if (entry.pieces[index] != null)
+            return null; // duplicate piece
+
+        byte[] piece = new byte[length];
+        System.arraycopy(data, view.getContentStart(), piece, 0, length);
+        entry.pieces[index] = piece;
+        entry.received++;
+        entry.bytes += length;
+        entry.charged += length;
+        bytes += length;
+
+        if (entry.received == count) {
+            partial.remove(key);
+            bytes -= entry.charged;
+            completed++;
+            byte[] full = new byte[entry.bytes];
+            int position = 0;
+            for (byte[] p : entry.pieces) {
+                System.arraycopy(p, 0, full, position, p.length);
+                position += p.length;
+            }
+            return new String(full, Charset.defaultCharset());
+        }
+
+        // drop the oldest snippets until the cache is back under its cap
+        Iterator<Entry> oldest = partial.values().iterator();
+        while (bytes > maxBytes && oldest.hasNext()) {
+            Entry e = oldest.next();
+            oldest.remove();
+            bytes -= e.charged;
+            evicted++;
+        }
+        return null;
+    }
+
+    /**
+     * Drops every snippet that has waited longer than the timeout. Snippets are
+     * kept in the order they were first seen, so only expired snippets are
+     * visited.
+     *
+     * @param now the current time in milliseconds
+     */
+    private void expire(long now) {
+        Iterator<Entry> oldest = partial.values().iterator();
+        while (oldest.hasNext()) {
+            Entry e = oldest.next();
+            if (now - e.created < timeoutMillis)
+                return;
+            oldest.remove();
+            bytes -= e.charged;
+            expired++;
+        }
+    }
+
+    /**
+     * Gets the number of snippets that were fully reassembled.
+     *
+     * @return the number of reassembled snippets
+     */
+    public synchronized long getCompleted() {
+        return this.completed;
+    }
+
+    /**
+     * Gets the number of snippets dropped because not all of their pieces
+     * arrived before the timeout.
+     *
+     * @return the number of expired snippets
+     */
+    public synchronized long getExpired() {
+        return this.expired;
+    }
+
+    /**
+     * Gets the number of snippets dropped to keep the cache under its memory cap.
+     *
+     * @return the number of evicted snippets
+     */
+    public synchronized long getEvicted() {
+        return this.evicted;
+    }
+
+    /**
+     * Gets the number of frag messages that were rejected as malformed.
+     *
+     * @return the number of rejected frag messages
+     */
+    public synchronized long getRejected() {
+        return this.rejected;
+    }
+
+    /**
+     * Gets the number of bytes of partly received snippets held by the cache,
+     * including the overhead charged for each snippet and piece.
+     *
+     * @return the number of bytes held
+     */
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+}
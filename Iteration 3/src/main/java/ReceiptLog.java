@@ -0,0 +1,91 @@
+package main.java;
+
+/**
+ * ReceiptLog is a class that records which peer told a Peer object about which
+ * other peer, or which peer a Peer object told, and when, for the report sent
+ * to the registry.
+ * A receipt is three longs in preallocated arrays: the packed address of the
+ * sender, or of the receiver of a sent peer, the packed address of the peer it
+ * was told about and the time in milliseconds.
+ * Recording a receipt allocates nothing; the addresses and times are only
+ * turned into text when the report is built. The log holds a fixed number of
+ * receipts and overwrites the oldest once it is full.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class ReceiptLog {
+    private final long[] senders;
+    private final long[] peers;
+    private final long[] times;
+    // the index of the next receipt to write
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * ReceiptVisitor is called for every receipt of a ReceiptLog.
+     */
+    public interface ReceiptVisitor {
+        /**
+         * Visits one receipt.
+         *
+         * @param sender the packed address of the peer that sent the peer, or
+         *               that it was sent to
+         * @param peer   the packed address of the peer that was sent
+         * @param time   the time it was received or sent in milliseconds
+         */
+        void visit(long sender, long peer, long time);
+    }
+
+    /**
+     * Class constructor that specifies the number of receipts kept by this
+     * ReceiptLog object.
+     *
+     * @param capacity the most receipts kept before the oldest is overwritten
+     */
+    ReceiptLog(int capacity) {
+        this.senders = new long[capacity];
+        this.peers = new long[capacity];
+        this.times = new long[capacity];
+    }
+
+    /**
+     * Records a receipt.
+     *
+     * @param sender the packed address of the peer that sent the peer, or
+     *               that it was sent to
+     * @param peer   the packed address of the peer that was sent
+     * @param time   the time it was received or sent in milliseconds
+     */
+    public synchronized void add(long sender, long peer, long time) {
+        senders[head] = sender;
+        peers[head] = peer;
+        times[head] = time;
+        head = (head + 1) % senders.length;
+        if (size < senders.length)
+            size++;
+    }
+
+    /**
+     * Visits every receipt kept, oldest first.
+     *
+     * @param visitor the ReceiptVisitor to call for each receipt
+     */
+    public synchronized void forEach(ReceiptVisitor visitor) {
+        int first = (head - size + senders.length) % senders.length;
+        for (int a = 0; a < size; a++) {
+            int i = (first + a) % senders.length;
+            visitor.visit(senders[i], peers[i], times[i]);
+        }
+    }
+
+    /**
+     * Gets the number of receipts kept.
+     *
+     * @return the number of receipts
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,285 @@
+package main.java;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RetransmitBuffer is a class that keeps the snippets a Peer object sent until
+ * each peer they were sent to acknowledges them, and sends them again if it
+ * does not.
+ * Every peer has its own retransmission timeout, computed from the round trip
+ * times of its acks as TCP does: a smoothed round trip time plus four times its
+ * mean deviation. Only snippets that were sent once are timed, since an ack for
+ * a snippet sent again cannot be matched to one of the sends. Each time a
+ * snippet is sent again its timeout is doubled, and after
+ * <code>MAX_ATTEMPTS</code> sends it is given up.
+ * The round trip estimates are kept apart from the unacknowledged snippets, so
+ * that a peer whose snippets were all acknowledged keeps its timeout for the
+ * next snippet. Estimates are kept for as many peers as the Peer object keeps
+ * alive; the estimate used least recently is dropped first.
+ * The buffer holds at most a given number of bytes; when it is full the
+ * snippets that were buffered first are given up to make room.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class RetransmitBuffer {
+    // the timeout of a peer that has not acknowledged anything yet
+    static final long INITIAL_RTO_MILLIS = 1000;
+    // the bounds of a timeout
+    static final long MIN_RTO_MILLIS = 200;
+    static final long MAX_RTO_MILLIS = 10000;
+    // the most times a snippet is sent to one peer
+    static final int MAX_ATTEMPTS = 5;
+    // how often the buffer is checked for snippets to send again
+    static final long TICK_MILLIS = 100;
+
+    private final Peer p;
+    private final long maxBytes;
+    private final HashMap<Long, Destination> destinations = new HashMap<Long, Destination>();
+    // the round trip estimate of each peer, least recently used first
+    private final LinkedHashMap<Long, Estimate> estimates = new LinkedHashMap<Long, Estimate>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Estimate> eldest) {
+            return size() > Peer.MAX_PEERS;
+        }
+    };
+    // every buffered snippet, oldest first, so that the oldest can be given up when full
+    private final LinkedHashSet<Pending> order = new LinkedHashSet<Pending>();
+    private long bytes = 0;
+
+    private final LongAdder retransmitted = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+
+    /**
+     * Estimate is the round trip estimate and timeout of one peer.
+     */
+    private static class Estimate {
+        private double srtt = -1;
+        private double rttvar = 0;
+        private long rto = INITIAL_RTO_MILLIS;
+    }
+
+    /**
+     * Destination is the unacknowledged snippets of one peer.
+     */
+    private static class Destination {
+        private final PeerLocation location;
+        private final Estimate estimate;
+        private final LinkedHashMap<Integer, Pending> pending = new LinkedHashMap<Integer, Pending>();
+
+        Destination(PeerLocation location, Estimate estimate) {
+            this.location = location;
+            this.estimate = estimate;
+        }
+    }
+
+    /**
+     * Pending is one snippet waiting to be acknowledged by one peer.
+     */
+    private static class Pending {
+        private final Destination to;
+        private final int timestamp;
+        private final List<byte[]> messages;
+        private final int size;
+        private final long firstSent;
+        private int attempts = 1;
+        private long deadline;
+
+        Pending(Destination to, int timestamp, List<byte[]> messages, long now) {
+            this.to = to;
+            this.timestamp = timestamp;
+            this.messages = messages;
+            int n = 0;
+            for (byte[] m : messages) {
+                n += m.length;
+            }
+            this.size = n;
+            this.firstSent = now;
+            this.deadline = now + to.estimate.rto;
+        }
+    }
+
+    /**
+     * Class constructor that specifies the Peer object whose snippets are sent
+     * and the most bytes of this RetransmitBuffer object.
+     *
+     * @param p        the Peer object whose snippets are sent
+     * @param maxBytes the most bytes of snippets buffered
+     */
+    RetransmitBuffer(Peer p, long maxBytes) {
+        this.p = p;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Checks the buffer for snippets to send again every
+     * <code>TICK_MILLIS</code> on a RoundScheduler until it is shut down.
+     *
+     * @param scheduler the RoundScheduler that runs the checks
+     */
+    public void start(RoundScheduler scheduler) {
+        scheduler.every(TICK_MILLIS, 0, () -> resend(System.currentTimeMillis()));
+    }
+
+    /**
+     * Buffers a snippet that was just sent to a peer.
+     *
+     * @param to        the PeerLocation of the peer it was sent to
+     * @param timestamp the timestamp of the snippet
+     * @param messages  the snip or frag messages that were sent, which must not
+     *                  be changed
+     * @param now       the current time in milliseconds
+     */
+    public synchronized void track(PeerLocation to, int timestamp, List<byte[]> messages, long now) {
+        Destination d = destinations.computeIfAbsent(to.getAddress(),
+                k -> new Destination(to, estimates.computeIfAbsent(k, e -> new Estimate())));
+        Pending old = d.pending.remove(timestamp);
+        if (old != null)
+            forget(old);
+        Pending pending = new Pending(d, timestamp, messages, now);
+        d.pending.put(timestamp, pending);
+        order.add(pending);
+        bytes += pending.size;
+
+        Iterator<Pending> it = order.iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Pending oldest = it.next();
+            it.remove();
+            oldest.to.pending.remove(oldest.timestamp);
+            bytes -= oldest.size;
+            abandoned.increment();
+        }
+    }
+
+    /**
+     * Removes the snippets a peer acknowledged from the buffer, and updates the
+     * peer's timeout with the round trip time of each one that was sent once.
+     *
+     * @param from       the packed address of the peer that sent the acks
+     * @param timestamps the timestamps of the acknowledged snippets
+     * @param count      the number of timestamps
+     * @param now        the current time in milliseconds
+     */
+    public synchronized void onAck(long from, int[] timestamps, int count, long now) {
+        Destination d = destinations.get(from);
+        if (d == null)
+            return;
+        for (int a = 0; a < count; a++) {
+            Pending pending = d.pending.remove(timestamps[a]);
+            if (pending == null)
+                continue;
+            forget(pending);
+            if (pending.attempts == 1)
+                sample(d.estimate, now - pending.firstSent);
+        }
+        // the estimate outlives the destination
+        if (d.pending.isEmpty())
+            destinations.remove(from);
+    }
+
+    /**
+     * Updates the timeout of a peer with one round trip time.
+     *
+     * @param d   the Estimate of the peer
+     * @param rtt the round trip time in milliseconds
+     */
+    private static void sample(Estimate d, long rtt) {
+        if (d.srtt < 0) {
+            d.srtt = rtt;
+            d.rttvar = rtt / 2.0;
+        } else {
+            d.rttvar = 0.75 * d.rttvar + 0.25 * Math.abs(d.srtt - rtt);
+            d.srtt = 0.875 * d.srtt + 0.125 * rtt;
+        }
+        d.rto = Math.min(MAX_RTO_MILLIS, Math.max(MIN_RTO_MILLIS, (long) (d.srtt + 4 * d.rttvar)));
+    }
+
+    /**
+     * Sends again every snippet whose timeout has passed, doubling its timeout,
+     * and gives up the snippets that were sent <code>MAX_ATTEMPTS</code> times.
+     *
+     * @param now the current time in milliseconds
+     */
+    private void resend(long now) {
+        ArrayList<Pending> due = new ArrayList<Pending>();
+        synchronized (this) {
+            Iterator<Pending> it = order.iterator();
+            while (it.hasNext()) {
+                Pending pending = it.next();
+                if (pending.deadline > now)
+                    continue;
+                if (pending.attempts == MAX_ATTEMPTS) {
+                    it.remove();
+                    pending.to.pending.remove(pending.timestamp);
+                    bytes -= pending.size;
+                    abandoned.increment();
+                    continue;
+                }
+                pending.attempts++;
+                pending.deadline = now + Math.min(MAX_RTO_MILLIS, pending.to.estimate.rto << (pending.attempts - 1));
+                due.add(pending);
+            }
+            destinations.values().removeIf(d -> d.pending.isEmpty());
+        }
+        // the messages are sent outside the lock so that acks are not held up
+        for (Pending pending : due) {
+            try {
+                for (byte[] buf : pending.messages) {
+                    p.send(buf, buf.length, pending.to.location, SendScheduler.SNIPPET);
+                }
+                retransmitted.increment();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Removes a snippet from the order of the buffer and its size from the total.
+     *
+     * @param pending the snippet
+     */
+    private void forget(Pending pending) {
+        order.remove(pending);
+        bytes -= pending.size;
+    }
+
+    /**
+     * Gets the number of bytes of snippets waiting to be acknowledged.
+     *
+     * @return the number of buffered bytes
+     */
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * Gets the number of times a snippet was sent again.
+     *
+     * @return the number of retransmissions
+     */
+    public long getRetransmitted() {
+        return retransmitted.sum();
+    }
+
+    /**
+     * Gets the number of snippets given up without an ack, because they were
+     * sent too many times or the buffer was full.
+     *
+     * @return the number of abandoned snippets
+     */
+    public long getAbandoned() {
+        return abandoned.sum();
+    }
+}
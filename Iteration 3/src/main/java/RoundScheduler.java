@@ -0,0 +1,166 @@
+package main.java;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RoundScheduler is a class that runs all of a Peer object's periodic work on
+ * a small ScheduledThreadPoolExecutor, so that no thread is held by a task
+ * while it waits for its next round.
+ * A task runs in rounds that start on a fixed grid of times, each delayed by a
+ * random jitter so that peers started together do not send in lockstep. The
+ * jitter never moves the grid, so rounds do not drift with load. A round that
+ * is still running when the next one is due has overrun, and every round whose
+ * time passed while it ran is skipped instead of being run late.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class RoundScheduler {
+    private final ScheduledThreadPoolExecutor executor;
+    private final LongAdder rounds = new LongAdder();
+    private final LongAdder overrun = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * Round is one periodic task, which schedules itself again after each run.
+     */
+    private class Round implements Runnable {
+        private final long periodMillis;
+        private final double jitter;
+        private final Runnable task;
+        // the time on the grid that this round is for
+        private long next;
+
+        Round(long periodMillis, double jitter, Runnable task, long first) {
+            this.periodMillis = periodMillis;
+            this.jitter = jitter;
+            this.task = task;
+            this.next = first;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            rounds.increment();
+
+            long now = System.currentTimeMillis();
+            next += periodMillis;
+            if (now >= next) {
+                overrun.increment();
+                long missed = (now - next) / periodMillis + 1;
+                skipped.add(missed);
+                next += missed * periodMillis;
+            }
+            schedule(now);
+        }
+
+        /**
+         * Schedules this Round for the next time on its grid plus a random
+         * jitter.
+         *
+         * @param now the current time in milliseconds
+         */
+        void schedule(long now) {
+            long delay = next - now + (long) (ThreadLocalRandom.current().nextDouble() * jitter * periodMillis);
+            try {
+                executor.schedule(this, Math.max(0, delay), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the scheduler was shut down
+            }
+        }
+    }
+
+    /**
+     * Class constructor that specifies the number of threads of this
+     * RoundScheduler object.
+     *
+     * @param threads the number of threads that run tasks
+     */
+    RoundScheduler(int threads) {
+        this.executor = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread t = new Thread(r, "peer-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        // tasks waiting for their next round are dropped on shutdown
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Runs a task in rounds, starting now.
+     *
+     * @param periodMillis the time between the starts of rounds in milliseconds
+     * @param jitter       the most a round is delayed, as a fraction of the period
+     * @param task         the task to run each round
+     */
+    public void every(long periodMillis, double jitter, Runnable task) {
+        long now = System.currentTimeMillis();
+        new Round(periodMillis, jitter, task, now).schedule(now);
+    }
+
+    /**
+     * Runs a task once after a delay.
+     *
+     * @param delayMillis the delay in milliseconds
+     * @param task        the task to run
+     */
+    public void after(long delayMillis, Runnable task) {
+        try {
+            executor.schedule(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the scheduler was shut down
+        }
+    }
+
+    /**
+     * Stops running tasks. A round that is running is finished, but no more
+     * rounds are started.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Gets the number of rounds run.
+     *
+     * @return the number of rounds run
+     */
+    public long getRounds() {
+        return rounds.sum();
+    }
+
+    /**
+     * Gets the number of rounds that were still running when the next round was
+     * due.
+     *
+     * @return the number of overrun rounds
+     */
+    public long getOverrun() {
+        return overrun.sum();
+    }
+
+    /**
+     * Gets the number of rounds that were not run because an earlier round
+     * overran.
+     *
+     * @return the number of skipped rounds
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+}
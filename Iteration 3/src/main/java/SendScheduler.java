@@ -0,0 +1,300 @@
+package main.java;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SendScheduler is a class that paces all of the UDP messages a Peer object
+ * sends through one token bucket, so that a burst of gossip cannot overflow the
+ * send buffer of the socket or the receive buffers of other peers.
+ * The SendScheduler class implements the Runnable interface.
+ * Messages are queued in one of three lanes, for snippets, membership messages
+ * and control messages such as stop acks, and a single sending thread takes
+ * turns between them with deficit round robin. Each turn a lane earns its
+ * quantum of bytes and sends messages while it has earned enough for the next
+ * one, so when every lane is busy snippets get four sevenths of what is sent,
+ * membership messages two sevenths and control messages one seventh, and no
+ * lane is starved by the ones above it. The bucket holds
+ * both packets and bytes; either limit can be turned off by setting it to zero.
+ * A message offered to a full lane is dropped and counted.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class SendScheduler implements Runnable {
+    // the lane of snippet messages, which are sent first
+    static final int SNIPPET = 0;
+    // the lane of peer, peer list, pull and probe messages
+    static final int MEMBERSHIP = 1;
+    // the lane of stop acks and other replies to the registry
+    static final int CONTROL = 2;
+    // the number of lanes
+    static final int LANES = 3;
+    // the bytes each lane earns a turn, in the order of the lanes
+    private static final int[] QUANTUM = { 4 * ReassemblyCache.MAX_DATAGRAM, 2 * ReassemblyCache.MAX_DATAGRAM,
+            ReassemblyCache.MAX_DATAGRAM };
+    // the bucket holds at most this many milliseconds of tokens
+    static final long BURST_MILLIS = 100;
+    // how long closing waits for queued messages to be sent
+    static final long CLOSE_TIMEOUT_MILLIS = 1000;
+
+    private final Peer p;
+    private final double packetsPerNano;
+    private final double bytesPerNano;
+    private final double packetBurst;
+    private final double byteBurst;
+    private final int laneCapacity;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private final ArrayDeque<Outbound>[] lanes = new ArrayDeque[LANES];
+    private final LongAdder[] dropped = new LongAdder[LANES];
+    private final LongAdder sent = new LongAdder();
+    private int depth = 0;
+    // the bytes each lane has earned and not yet sent
+    private final int[] deficit = new int[LANES];
+    // the lane whose turn it is, and whether it has earned its quantum this turn
+    private int turn = 0;
+    private boolean credited = false;
+    private boolean closed = false;
+    private Thread thread;
+
+    private double packetTokens;
+    private double byteTokens;
+    private long refilled = System.nanoTime();
+
+    /**
+     * Outbound is a message waiting in a lane of a SendScheduler object.
+     */
+    private static class Outbound {
+        private final byte[] data;
+        private final int length;
+        private final PeerLocation to;
+
+        Outbound(byte[] data, int length, PeerLocation to) {
+            this.data = data;
+            this.length = length;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Class constructor that specifies the Peer object whose messages are sent
+     * and the limits of this SendScheduler object.
+     *
+     * @param p                the Peer object whose messages are sent
+     * @param packetsPerSecond the most messages sent a second, or <code>0</code>
+     *                         for no limit
+     * @param bytesPerSecond   the most bytes sent a second, or <code>0</code> for
+     *                         no limit
+     * @param laneCapacity     the most messages queued in each lane
+     */
+    SendScheduler(Peer p, int packetsPerSecond, int bytesPerSecond, int laneCapacity) {
+        this.p = p;
+        this.packetsPerNano = packetsPerSecond / 1e9;
+        this.bytesPerNano = bytesPerSecond / 1e9;
+        this.packetBurst = Math.max(1, packetsPerSecond * BURST_MILLIS / 1000.0);
+        this.byteBurst = bytesPerSecond * BURST_MILLIS / 1000.0;
+        this.packetTokens = packetBurst;
+        this.byteTokens = byteBurst;
+        this.laneCapacity = laneCapacity;
+        for (int i = 0; i < LANES; i++) {
+            lanes[i] = new ArrayDeque<Outbound>();
+            dropped[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Starts the sending thread of this SendScheduler object.
+     */
+    public void start() {
+        thread = new Thread(this, "peer-sender");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a message to be sent. This method can be called from any thread.
+     *
+     * @param data   the buffer containing the message, which must not be changed
+     *               after it is queued
+     * @param length the number of bytes in the message
+     * @param to     the PeerLocation of the peer to send the message to
+     * @param lane   the lane to queue the message in
+     * @return <code>true</code> if the message was queued, or <code>false</code>
+     *         if the lane was full and the message was dropped
+     */
+    public synchronized boolean offer(byte[] data, int length, PeerLocation to, int lane) {
+        if (closed || lanes[lane].size() >= laneCapacity) {
+            dropped[lane].increment();
+            return false;
+        }
+        lanes[lane].add(new Outbound(data, length, to));
+        if (depth++ == 0)
+            notify();
+        return true;
+    }
+
+    /**
+     * Sends queued messages, taking turns between the lanes, as fast as the token
+     * bucket allows until this SendScheduler object is closed and its lanes are
+     * empty.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            Outbound o;
+            try {
+                o = next();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (o == null)
+                return;
+            try {
+                p.transmit(o.data, o.length, o.to);
+                sent.increment();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Waits until there is a message to send and the bucket has the tokens to
+     * send it, then takes it from its lane.
+     *
+     * @return the message to send, or <code>null</code> if this SendScheduler
+     *         object is closed and its lanes are empty
+     * @throws InterruptedException if the sending thread is interrupted
+     */
+    private synchronized Outbound next() throws InterruptedException {
+        while (true) {
+            while (depth == 0) {
+                if (closed)
+                    return null;
+                wait();
+            }
+            int lane = pick();
+            Outbound o = lanes[lane].peek();
+
+            refill();
+            long waitNanos = 0;
+            if (packetsPerNano > 0 && packetTokens < 1)
+                waitNanos = (long) ((1 - packetTokens) / packetsPerNano);
+            // a message larger than the bucket is sent once the bucket is full
+            double needed = Math.min(o.length, byteBurst);
+            if (bytesPerNano > 0 && byteTokens < needed)
+                waitNanos = Math.max(waitNanos, (long) ((needed - byteTokens) / bytesPerNano));
+            if (waitNanos > 0) {
+                // the lane keeps its turn while the bucket fills
+                wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                continue;
+            }
+
+            lanes[lane].poll();
+            deficit[lane] -= o.length;
+            depth--;
+            if (packetsPerNano > 0)
+                packetTokens -= 1;
+            if (bytesPerNano > 0)
+                byteTokens -= o.length;
+            return o;
+        }
+    }
+
+    /**
+     * Finds the lane to send from next with deficit round robin. A lane keeps
+     * its turn while it has earned enough for its next message; otherwise it is
+     * given its quantum once, and then the turn passes on. An empty lane loses
+     * what it had earned, so that it cannot save up for a burst.
+     *
+     * @return the lane, which has a message
+     */
+    private int pick() {
+        while (true) {
+            Outbound o = lanes[turn].peek();
+            if (o == null) {
+                deficit[turn] = 0;
+            } else if (deficit[turn] >= o.length) {
+                return turn;
+            } else if (!credited) {
+                deficit[turn] += QUANTUM[turn];
+                credited = true;
+                continue;
+            }
+            turn = (turn + 1) % LANES;
+            credited = false;
+        }
+    }
+
+    /**
+     * Adds the tokens earned since the bucket was last refilled.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        long elapsed = now - refilled;
+        refilled = now;
+        packetTokens = Math.min(packetBurst, packetTokens + elapsed * packetsPerNano);
+        byteTokens = Math.min(byteBurst, byteTokens + elapsed * bytesPerNano);
+    }
+
+    /**
+     * Stops accepting messages and waits a while for the queued messages to be
+     * sent before the sending thread ends.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notify();
+        }
+        try {
+            thread.join(CLOSE_TIMEOUT_MILLIS);
+            thread.interrupt();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the number of messages waiting to be sent.
+     *
+     * @return the number of queued messages
+     */
+    public synchronized int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * Gets the number of messages dropped because their lane was full.
+     *
+     * @return the number of dropped messages
+     */
+    public long getDropped() {
+        long sum = 0;
+        for (LongAdder d : dropped) {
+            sum += d.sum();
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the number of messages dropped from one lane because it was full.
+     *
+     * @param lane the lane
+     * @return the number of messages dropped from the lane
+     */
+    public long getDropped(int lane) {
+        return dropped[lane].sum();
+    }
+
+    /**
+     * Gets the number of messages sent.
+     *
+     * @return the number of messages sent
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+}
@@ -0,0 +1,104 @@
+package main.java;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * ShardedReceiver is a class that binds several UDP sockets to the same Port
+ * with SO_REUSEPORT so that the kernel spreads a Peer object's inbound messages
+ * across several receiver threads.
+ * Each socket has its own receiver thread running its own MessageHandler. The
+ * first socket is also used for sending.
+ * SO_REUSEPORT is only load balanced on Linux; where it is not supported a
+ * single socket is opened.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class ShardedReceiver {
+    private DatagramChannel[] channels;
+    private Thread[] threads;
+
+    /**
+     * Class constructor that binds the given number of sockets to one randomly
+     * assigned Port.
+     *
+     * @param receivers the number of sockets and receiver threads
+     * @throws IOException if a socket could not be opened or bound
+     */
+    ShardedReceiver(int receivers) throws IOException {
+        DatagramChannel first = DatagramChannel.open();
+        if (!first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            System.err.println("SO_REUSEPORT is not supported, using a single receiver");
+            receivers = 1;
+        } else {
+            first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        first.bind(null);
+        int port = first.socket().getLocalPort();
+
+        this.channels = new DatagramChannel[receivers];
+        this.channels[0] = first;
+        for (int i = 1; i < receivers; i++) {
+            channels[i] = DatagramChannel.open();
+            channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            channels[i].bind(new InetSocketAddress(port));
+        }
+    }
+
+    /**
+     * Gets the socket that this ShardedReceiver object's Peer sends through.
+     *
+     * @return the first bound socket
+     */
+    public DatagramSocket getSocket() {
+        return this.channels[0].socket();
+    }
+
+    /**
+     * Starts a receiver thread for every socket.
+     *
+     * @param p        the Peer object that the messages are handled for
+     * @param pipeline the MessagePipeline that the receivers hand messages to, or
+     *                 <code>null</code> to handle them on the receiver threads
+     */
+    public void start(Peer p, MessagePipeline pipeline) {
+        this.threads = new Thread[channels.length];
+        for (int i = 0; i < channels.length; i++) {
+            MessageHandler handler = new MessageHandler(channels[i].socket(), p);
+            handler.setPipeline(pipeline);
+            threads[i] = new Thread(handler, "peer-receiver-" + i);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Waits for every receiver thread to finish.
+     */
+    public void join() {
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Closes every socket of this ShardedReceiver object.
+     */
+    public void close() {
+        for (DatagramChannel c : channels) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
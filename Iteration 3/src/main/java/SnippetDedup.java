@@ -0,0 +1,234 @@
+package main.java;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SnippetDedup is a class that remembers which snippets a Peer object has
+ * received, keyed by the packed address of their source and their timestamp,
+ * so that a snippet received again is dropped before it is queued.
+ * The most recent snippets are kept exactly in a set of flat arrays with open
+ * addressing, so a lookup is constant time and a snippet costs three primitive
+ * slots instead of a map node and a Snippet. The set holds a fixed number of
+ * snippets; the oldest one is forgotten to make room for each new one.
+ * If a Bloom filter is used, forgotten snippets are added to it, so that old
+ * history is still recognised in a fixed number of bits at the cost of a small
+ * chance of dropping a new snippet. The filter has two generations: when the
+ * current one has taken as many snippets as it holds well, the older one is
+ * cleared and takes its place.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class SnippetDedup {
+    // the number of hash functions of the Bloom filter
+    static final int BLOOM_HASHES = 7;
+    // a generation is swapped out after this many snippets per 10 bits, about a 1% false positive rate
+    static final int BLOOM_BITS_PER_SNIPPET = 10;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] sources;
+    private final int[] timestamps;
+    // the snippets in the order they were added, so the oldest can be forgotten
+    private final long[] ringSources;
+    private final int[] ringTimestamps;
+    private int head = 0;
+    private int size = 0;
+
+    private long[] bloom;
+    private long[] olderBloom;
+    private int bloomCount = 0;
+
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * Class constructor that specifies the number of snippets kept exactly and
+     * the size of the Bloom filter of this SnippetDedup object.
+     *
+     * @param capacity  the number of snippets kept exactly
+     * @param bloomBits the number of bits in each generation of the Bloom
+     *                  filter, a multiple of 64, or <code>0</code> for none
+     */
+    SnippetDedup(int capacity, int bloomBits) {
+        this.capacity = capacity;
+        int slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2;
+        this.mask = slots - 1;
+        this.sources = new long[slots];
+        this.timestamps = new int[slots];
+        this.ringSources = new long[capacity];
+        this.ringTimestamps = new int[capacity];
+        if (bloomBits > 0) {
+            this.bloom = new long[bloomBits / 64];
+            this.olderBloom = new long[bloomBits / 64];
+        }
+    }
+
+    /**
+     * Records a received snippet.
+     *
+     * @param source    the packed address of the source of the snippet
+     * @param timestamp the timestamp of the snippet
+     * @return <code>true</code> if the snippet was not received before, or
+     *         <code>false</code> if it is a duplicate
+     */
+    public synchronized boolean add(long source, int timestamp) {
+        int i = find(source, timestamp);
+        if (sources[i] == source || (bloom != null && inBloom(source, timestamp))) {
+            duplicates.increment();
+            return false;
+        }
+        if (size == capacity) {
+            long oldSource = ringSources[head];
+            int oldTimestamp = ringTimestamps[head];
+            remove(oldSource, oldTimestamp);
+            if (bloom != null)
+                addBloom(oldSource, oldTimestamp);
+            size--;
+            i = find(source, timestamp);
+        }
+        sources[i] = source;
+        timestamps[i] = timestamp;
+        ringSources[head] = source;
+        ringTimestamps[head] = timestamp;
+        head = (head + 1) % capacity;
+        size++;
+        return true;
+    }
+
+    /**
+     * Finds the slot holding a snippet, or the empty slot where it would be
+     * inserted. A source of <code>0</code> marks an empty slot.
+     *
+     * @param source    the packed address of the source
+     * @param timestamp the timestamp
+     * @return the index of the slot
+     */
+    private int find(long source, int timestamp) {
+        int i = slot(source, timestamp);
+        while (sources[i] != 0 && (sources[i] != source || timestamps[i] != timestamp))
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * Removes a snippet, shifting the entries after it in its probe sequence
+     * back so that no tombstones are left behind.
+     *
+     * @param source    the packed address of the source
+     * @param timestamp the timestamp
+     */
+    private void remove(long source, int timestamp) {
+        int hole = find(source, timestamp);
+        if (sources[hole] == 0)
+            return;
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            if (sources[j] == 0)
+                break;
+            int home = slot(sources[j], timestamps[j]);
+            // move the entry back if its home slot is not between the hole and j
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                sources[hole] = sources[j];
+                timestamps[hole] = timestamps[j];
+                hole = j;
+            }
+        }
+        sources[hole] = 0;
+    }
+
+    /**
+     * Adds a forgotten snippet to the current generation of the Bloom filter,
+     * first swapping generations if the current one is full.
+     *
+     * @param source    the packed address of the source
+     * @param timestamp the timestamp
+     */
+    private void addBloom(long source, int timestamp) {
+        if (bloomCount * BLOOM_BITS_PER_SNIPPET >= bloom.length * 64) {
+            long[] t = olderBloom;
+            Arrays.fill(t, 0);
+            olderBloom = bloom;
+            bloom = t;
+            bloomCount = 0;
+        }
+        long h = hash(source, timestamp);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        int bits = bloom.length * 64;
+        for (int k = 0; k < BLOOM_HASHES; k++) {
+            int b = Math.floorMod(h1 + k * h2, bits);
+            bloom[b >>> 6] |= 1L << b;
+        }
+        bloomCount++;
+    }
+
+    /**
+     * Checks if a snippet may be in either generation of the Bloom filter.
+     *
+     * @param source    the packed address of the source
+     * @param timestamp the timestamp
+     * @return <code>true</code> if the snippet may have been forgotten before
+     */
+    private boolean inBloom(long source, int timestamp) {
+        long h = hash(source, timestamp);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        int bits = bloom.length * 64;
+        boolean current = true;
+        boolean older = true;
+        for (int k = 0; k < BLOOM_HASHES && (current || older); k++) {
+            int b = Math.floorMod(h1 + k * h2, bits);
+            current &= (bloom[b >>> 6] & (1L << b)) != 0;
+            older &= (olderBloom[b >>> 6] & (1L << b)) != 0;
+        }
+        return current || older;
+    }
+
+    /**
+     * Gets the home slot of a snippet.
+     *
+     * @param source    the packed address of the source
+     * @param timestamp the timestamp
+     * @return the index of the home slot
+     */
+    private int slot(long source, int timestamp) {
+        return (int) (hash(source, timestamp) >>> 32) & mask;
+    }
+
+    /**
+     * Mixes the source and timestamp of a snippet into 64 bits.
+     *
+     * @param source    the packed address of the source
+     * @param timestamp the timestamp
+     * @return the hash
+     */
+    private static long hash(long source, int timestamp) {
+        long h = (source ^ ((long) timestamp << 48 | timestamp)) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Gets the number of snippets dropped as duplicates.
+     *
+     * @return the number of duplicates
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Gets the number of bytes of heap used by the arrays of this SnippetDedup
+     * object.
+     *
+     * @return the number of bytes used
+     */
+    public long getMemoryBytes() {
+        long n = (mask + 1L) * (Long.BYTES + Integer.BYTES) + (long) capacity * (Long.BYTES + Integer.BYTES);
+        if (bloom != null)
+            n += 2L * bloom.length * Long.BYTES;
+        return n;
+    }
+}
@@ -0,0 +1,540 @@
+package main.java;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * SnippetLog is a class that keeps the snippets of a Peer object on disk
+ * instead of on the heap, in an append-only log that survives a restart.
+ * The log is a directory of segment files, each mapped into memory and
+ * written through the mapping, so appending a snippet is a copy into the page
+ * cache and the operating system writes it back. A segment holds records of
+ * the form <code>&lt;length&gt; &lt;crc&gt; &lt;timestamp&gt; &lt;source&gt; &lt;content&gt;</code>,
+ * where the length is the number of bytes of the whole record and a length of
+ * zero marks the end of the segment. When a record does not fit, the segment is
+ * flushed and a new one is started; when there are more than the retained
+ * number of segments, the oldest is deleted.
+ * Only an index is kept on the heap: flat arrays with open addressing, keyed
+ * by the source and timestamp of every record, that give the segment and
+ * offset of the record and its number in the log. A snippet is found in
+ * constant time however many are logged. The most recently appended snippets
+ * are also kept on the heap in a ring indexed by their number, so reading one
+ * of them does not touch the segments.
+ * On opening, the index is rebuilt by reading every segment up to its end or
+ * to the first record whose checksum does not match, which is where a crash
+ * stopped a write, and the rest of that segment is cleared. When a segment is
+ * deleted its records are read once more to remove them from the index.
+ * A deleted segment stays mapped until the garbage collector frees its buffer.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class SnippetLog {
+    // the bytes before the content of a record: the length, crc, timestamp and source
+    static final int HEADER = 20;
+    // the suffix of segment files
+    static final String SUFFIX = ".log";
+    // the number of slots of the index before it first grows
+    private static final int INITIAL_SLOTS = 1024;
+
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    // the segments, oldest first; the last one is appended to
+    private final ArrayList<Segment> segments = new ArrayList<Segment>();
+    private int size = 0;
+    private final CRC32 crc = new CRC32();
+
+    // the index: a source of 0 marks an empty slot
+    private long[] sources = new long[INITIAL_SLOTS];
+    private int[] timestamps = new int[INITIAL_SLOTS];
+    // the segment id above the offset of each record
+    private long[] locations = new long[INITIAL_SLOTS];
+    // the number of each record in the log, counted from the first record read or appended
+    private long[] numbers = new long[INITIAL_SLOTS];
+    private int mask = INITIAL_SLOTS - 1;
+    private int indexed = 0;
+    private long records = 0;
+
+    // the most recently appended snippets, each at its number modulo the length
+    private final Snippet[] hot;
+    private final DropVisitor dropped;
+
+    /**
+     * SnippetVisitor is called for every snippet of a SnippetLog.
+     */
+    public interface SnippetVisitor {
+        /**
+         * Visits one snippet.
+         *
+         * @param s the Snippet
+         */
+        void visit(Snippet s);
+    }
+
+    /**
+     * DropVisitor is called for every snippet of a SnippetLog that is deleted
+     * with its segment.
+     */
+    public interface DropVisitor {
+        /**
+         * Visits one deleted snippet.
+         *
+         * @param source    the packed address of the source of the snippet
+         * @param timestamp the timestamp of the snippet
+         */
+        void visit(long source, int timestamp);
+    }
+
+    /**
+     * Segment is one mapped file of a SnippetLog object.
+     */
+    private static class Segment {
+        private final long id;
+        private final File file;
+        private final MappedByteBuffer buf;
+        private int position = 0;
+        private int count = 0;
+
+        Segment(long id, File file, MappedByteBuffer buf) {
+            this.id = id;
+            this.file = file;
+            this.buf = buf;
+        }
+    }
+
+    /**
+     * Class constructor that specifies the directory and the limits of this
+     * SnippetLog object.
+     *
+     * @param directory    the directory of the segment files, which is created
+     *                     if it does not exist
+     * @param segmentBytes the size of a segment file
+     * @param maxSegments  the most segments kept before the oldest is deleted
+     * @param hotSnippets  the number of most recently appended snippets also
+     *                     kept on the heap
+     * @param dropped      the DropVisitor called for each snippet deleted, while
+     *                     the lock of the log is held, or <code>null</code>
+     */
+    SnippetLog(File directory, int segmentBytes, int maxSegments, int hotSnippets, DropVisitor dropped) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.hot = new Snippet[Math.max(1, hotSnippets)];
+        this.dropped = dropped;
+    }
+
+    /**
+     * Opens the segments in the directory and rebuilds their index, or starts
+     * the first segment if there are none.
+     *
+     * @throws IOException if the directory or a segment cannot be opened
+     */
+    public synchronized void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+        File[] files = directory.listFiles((d, name) -> name.endsWith(SUFFIX));
+        long[] ids = new long[files == null ? 0 : files.length];
+        int n = 0;
+        for (int a = 0; a < ids.length; a++) {
+            String name = files[a].getName();
+            try {
+                ids[n++] = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring " + files[a]);
+            }
+        }
+        Arrays.sort(ids, 0, n);
+        for (int a = 0; a < n; a++) {
+            File file = segmentFile(ids[a]);
+            Segment s = new Segment(ids[a], file, map(file, (int) Math.max(file.length(), HEADER)));
+            recover(s);
+            segments.add(s);
+            size += s.count;
+        }
+        if (segments.isEmpty())
+            roll(segmentBytes);
+        while (segments.size() > maxSegments)
+            dropOldest();
+    }
+
+    /**
+     * Reads the records of a segment into its index up to its end or to the
+     * first damaged record, and clears everything after them.
+     *
+     * @param s the Segment
+     */
+    private void recover(Segment s) {
+        ByteBuffer buf = s.buf;
+        int at = 0;
+        while (at + HEADER <= buf.capacity()) {
+            int record = buf.getInt(at);
+            if (record < HEADER || at + record > buf.capacity()
+                    || buf.getInt(at + 4) != checksum(buf, at, record - HEADER))
+                break;
+            index(buf.getInt(at + 8), buf.getLong(at + 12), s.id, at);
+            s.count++;
+            at += record;
+        }
+        s.position = at;
+        for (int a = at; a < buf.capacity(); a++) {
+            buf.put(a, (byte) 0);
+        }
+    }
+
+    /**
+     * Appends a snippet to the log, starting a new segment if it does not fit
+     * in the current one.
+     *
+     * @param snippet the Snippet to append
+     * @throws IOException if a new segment cannot be created
+     */
+    public synchronized void append(Snippet snippet) throws IOException {
+        byte[] content = snippet.getContent().getBytes(StandardCharsets.UTF_8);
+        int record = HEADER + content.length;
+        Segment s = segments.get(segments.size() - 1);
+        // a segment is left with room for the zero length that ends it
+        if (s.position + record + 4 > s.buf.capacity()) {
+            s.buf.force();
+            s = roll(Math.max(segmentBytes, record + 4));
+        }
+        ByteBuffer buf = s.buf;
+        int at = s.position;
+        buf.putInt(at + 8, snippet.getTimestamp());
+        buf.putLong(at + 12, snippet.getSourcePeer().getAddress());
+        ByteBuffer body = buf.duplicate();
+        body.position(at + HEADER);
+        body.put(content);
+        buf.putInt(at + 4, checksum(buf, at, content.length));
+        // the length is written last, so a torn record ends the segment
+        buf.putInt(at, record);
+        s.position += record;
+        s.count++;
+        hot[(int) (records % hot.length)] = snippet;
+        index(snippet.getTimestamp(), snippet.getSourcePeer().getAddress(), s.id, at);
+        size++;
+    }
+
+    /**
+     * Starts a new segment, and deletes the oldest if there are too many.
+     *
+     * @param bytes the size of the new segment
+     * @return the new Segment
+     * @throws IOException if the segment file cannot be created
+     */
+    private Segment roll(int bytes) throws IOException {
+        long id = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).id + 1;
+        File file = segmentFile(id);
+        Segment s = new Segment(id, file, map(file, bytes));
+        segments.add(s);
+        while (segments.size() > maxSegments)
+            dropOldest();
+        return s;
+    }
+
+    /**
+     * Deletes the oldest segment and removes its records from the index.
+     */
+    private void dropOldest() {
+        Segment oldest = segments.remove(0);
+        size -= oldest.count;
+        ByteBuffer buf = oldest.buf;
+        for (int at = 0; at < oldest.position; at += buf.getInt(at)) {
+            // a snippet logged again in a later segment is still in the log
+            if (unindex(buf.getInt(at + 8), buf.getLong(at + 12), oldest.id, at) && dropped != null)
+                dropped.visit(buf.getLong(at + 12), buf.getInt(at + 8));
+        }
+        if (!oldest.file.delete())
+            System.err.println("Cannot delete " + oldest.file);
+    }
+
+    /**
+     * Reads the snippet with a timestamp from a source, if it is still in the
+     * log, from the heap if it is one of the most recently appended.
+     *
+     * @param timestamp the timestamp of the snippet
+     * @param source    the packed address of the source of the snippet
+     * @return the Snippet, or <code>null</code> if it is not in the log
+     */
+    public synchronized Snippet read(int timestamp, long source) {
+        int i = find(source, timestamp);
+        if (sources[i] == 0)
+            return null;
+        if (records - numbers[i] <= hot.length) {
+            Snippet s = hot[(int) (numbers[i] % hot.length)];
+            if (s != null && s.getTimestamp() == timestamp && s.getSourcePeer().getAddress() == source)
+                return s;
+        }
+        long location = locations[i];
+        Segment s = segment(location >>> 32);
+        return s == null ? null : read(s, (int) location);
+    }
+
+    /**
+     * Adds a record to the index, or points the index at it if a record of the
+     * same snippet is already indexed, and gives it the next number.
+     *
+     * @param timestamp the timestamp of the snippet
+     * @param source    the packed address of the source of the snippet
+     * @param segment   the id of the segment of the record
+     * @param offset    the offset of the record
+     */
+    private void index(int timestamp, long source, long segment, int offset) {
+        int i = find(source, timestamp);
+        if (sources[i] == 0) {
+            if ((indexed + 1) * 2 > mask + 1) {
+                grow();
+                i = find(source, timestamp);
+            }
+            sources[i] = source;
+            timestamps[i] = timestamp;
+            indexed++;
+        }
+        locations[i] = segment << 32 | offset;
+        numbers[i] = records++;
+    }
+
+    /**
+     * Removes a record from the index if the index still points at it, shifting
+     * the entries after it in its probe sequence back so that no tombstones are
+     * left behind.
+     *
+     * @param timestamp the timestamp of the snippet
+     * @param source    the packed address of the source of the snippet
+     * @param segment   the id of the segment of the record
+     * @param offset    the offset of the record
+     * @return <code>true</code> if the record was removed
+     */
+    private boolean unindex(int timestamp, long source, long segment, int offset) {
+        int hole = find(source, timestamp);
+        if (sources[hole] == 0 || locations[hole] != (segment << 32 | offset))
+            return false;
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            if (sources[j] == 0)
+                break;
+            int home = slot(sources[j], timestamps[j], mask);
+            // move the entry back if its home slot is not between the hole and j
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                sources[hole] = sources[j];
+                timestamps[hole] = timestamps[j];
+                locations[hole] = locations[j];
+                numbers[hole] = numbers[j];
+                hole = j;
+            }
+        }
+        sources[hole] = 0;
+        indexed--;
+        return true;
+    }
+
+    /**
+     * Finds the slot of the index holding a snippet, or the empty slot where it
+     * would be added.
+     *
+     * @param source    the packed address of the source of the snippet
+     * @param timestamp the timestamp of the snippet
+     * @return the index of the slot
+     */
+    private int find(long source, int timestamp) {
+        int i = slot(source, timestamp, mask);
+        while (sources[i] != 0 && (sources[i] != source || timestamps[i] != timestamp))
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * Copies every entry of the index into slots of twice the capacity.
+     */
+    private void grow() {
+        long[] oldSources = sources;
+        int[] oldTimestamps = timestamps;
+        long[] oldLocations = locations;
+        long[] oldNumbers = numbers;
+        int slots = oldSources.length * 2;
+        sources = new long[slots];
+        timestamps = new int[slots];
+        locations = new long[slots];
+        numbers = new long[slots];
+        mask = slots - 1;
+        for (int a = 0; a < oldSources.length; a++) {
+            if (oldSources[a] == 0)
+                continue;
+            int i = find(oldSources[a], oldTimestamps[a]);
+            sources[i] = oldSources[a];
+            timestamps[i] = oldTimestamps[a];
+            locations[i] = oldLocations[a];
+            numbers[i] = oldNumbers[a];
+        }
+    }
+
+    /**
+     * Gets the home slot of a snippet in the index.
+     *
+     * @param source    the packed address of the source of the snippet
+     * @param timestamp the timestamp of the snippet
+     * @param mask      the number of slots minus one
+     * @return the index of the home slot
+     */
+    private static int slot(long source, int timestamp, int mask) {
+        long h = (source ^ ((long) timestamp << 48 | timestamp)) * 0x9E3779B97F4A7C15L;
+        return (int) ((h ^ (h >>> 29)) >>> 32) & mask;
+    }
+
+    /**
+     * Gets a segment that is still in the log by its id.
+     *
+     * @param id the id of the segment
+     * @return the Segment, or <code>null</code> if it was deleted
+     */
+    private Segment segment(long id) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long at = segments.get(mid).id;
+            if (at < id) {
+                low = mid + 1;
+            } else if (at > id) {
+                high = mid - 1;
+            } else {
+                return segments.get(mid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Visits every snippet in the log in the order of their timestamps. Only
+     * one snippet is read from disk at a time.
+     *
+     * @param visitor the SnippetVisitor to call for each snippet
+     */
+    public synchronized void forEach(SnippetVisitor visitor) {
+        // each record is sorted as its timestamp above its place in the log
+        long[] order = new long[size];
+        // the position of the segment in the log above the offset of each record
+        long[] where = new long[size];
+        int n = 0;
+        for (int a = 0; a < segments.size(); a++) {
+            Segment s = segments.get(a);
+            for (int at = 0; at < s.position; at += s.buf.getInt(at)) {
+                order[n] = (long) s.buf.getInt(at + 8) << 32 | n;
+                where[n] = (long) a << 32 | at;
+                n++;
+            }
+        }
+        Arrays.sort(order, 0, n);
+        for (int b = 0; b < n; b++) {
+            long w = where[(int) order[b]];
+            visitor.visit(read(segments.get((int) (w >>> 32)), (int) w));
+        }
+    }
+
+    /**
+     * Reads one record of a segment.
+     *
+     * @param s  the Segment
+     * @param at the offset of the record
+     * @return the Snippet
+     */
+    private static Snippet read(Segment s, int at) {
+        byte[] content = new byte[s.buf.getInt(at) - HEADER];
+        ByteBuffer body = s.buf.duplicate();
+        body.position(at + HEADER);
+        body.get(content);
+        return new Snippet(new String(content, StandardCharsets.UTF_8), PeerLocation.of(s.buf.getLong(at + 12)),
+                s.buf.getInt(at + 8));
+    }
+
+    /**
+     * Computes the checksum of the timestamp, source and content of a record.
+     *
+     * @param buf    the buffer of the segment
+     * @param at     the offset of the record
+     * @param length the number of bytes of content
+     * @return the checksum
+     */
+    private int checksum(ByteBuffer buf, int at, int length) {
+        ByteBuffer covered = buf.duplicate();
+        covered.limit(at + HEADER + length).position(at + 8);
+        crc.reset();
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Maps a segment file into memory, creating it if it does not exist.
+     *
+     * @param file  the segment file
+     * @param bytes the size of the segment
+     * @return the mapped buffer
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    private static MappedByteBuffer map(File file, int bytes) throws IOException {
+        // the mapping stays valid after the channel is closed
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        }
+    }
+
+    /**
+     * Gets the file of a segment.
+     *
+     * @param id the number of the segment
+     * @return the segment file
+     */
+    private File segmentFile(long id) {
+        return new File(directory, String.format("%020d", id) + SUFFIX);
+    }
+
+    /**
+     * Writes every segment back to disk.
+     */
+    public synchronized void close() {
+        for (Segment s : segments) {
+            s.buf.force();
+        }
+    }
+
+    /**
+     * Gets the number of snippets in the log.
+     *
+     * @return the number of snippets
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets the number of bytes of the segment files of the log.
+     *
+     * @return the number of bytes on disk
+     */
+    public synchronized long getBytes() {
+        long n = 0;
+        for (Segment s : segments) {
+            n += s.buf.capacity();
+        }
+        return n;
+    }
+
+    /**
+     * Gets the number of bytes of heap used by the index of the log.
+     *
+     * @return the number of bytes used
+     */
+    public synchronized long getIndexBytes() {
+        return (long) sources.length * (Long.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES);
+    }
+}
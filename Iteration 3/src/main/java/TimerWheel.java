@@ -0,0 +1,105 @@
+package main.java;
+
+import java.util.Arrays;
+
+/**
+ * TimerWheel is a class that represents a hashed timing wheel of packed peer
+ * addresses.
+ * Each address is put in the bucket of the tick its deadline falls in, so
+ * scheduling an address and taking it out when its tick passes are both
+ * constant time, however many addresses are scheduled. Deadlines further away
+ * than one turn of the wheel come due early, so the caller is expected to check
+ * each address it is given and schedule it again if it is not due yet.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class TimerWheel {
+    private final long tickMillis;
+    private final int mask;
+    private final long[][] buckets;
+    private final int[] sizes;
+    private long tick;
+    private int size = 0;
+    private long[] due = new long[64];
+
+    /**
+     * Class constructor that specifies the number of buckets and the length of a
+     * tick of this TimerWheel object.
+     *
+     * @param slots      the number of buckets, which must be a power of two
+     * @param tickMillis the length of a tick in milliseconds
+     * @param now        the current time in milliseconds
+     */
+    TimerWheel(int slots, long tickMillis, long now) {
+        if (Integer.bitCount(slots) != 1)
+            throw new IllegalArgumentException("slots must be a power of two: " + slots);
+        this.tickMillis = tickMillis;
+        this.mask = slots - 1;
+        this.buckets = new long[slots][8];
+        this.sizes = new int[slots];
+        this.tick = now / tickMillis;
+    }
+
+    /**
+     * Schedules an address to come due at a deadline. A deadline that has
+     * already passed comes due on the next tick.
+     *
+     * @param address  the packed address
+     * @param deadline the time in milliseconds the address comes due
+     */
+    public synchronized void schedule(long address, long deadline) {
+        long t = Math.max(deadline / tickMillis, tick + 1);
+        int b = (int) (t & mask);
+        if (sizes[b] == buckets[b].length)
+            buckets[b] = Arrays.copyOf(buckets[b], sizes[b] * 2);
+        buckets[b][sizes[b]++] = address;
+        size++;
+    }
+
+    /**
+     * Takes every address whose tick has passed out of this TimerWheel object.
+     * The addresses are copied into the array returned by {@link #getDue}. Each
+     * bucket is visited at most once, however long it has been since the last
+     * call.
+     *
+     * @param now the current time in milliseconds
+     * @return the number of addresses that came due
+     */
+    public synchronized int advance(long now) {
+        long target = now / tickMillis;
+        int n = 0;
+        for (long t = Math.max(tick + 1, target - mask); t <= target; t++) {
+            int b = (int) (t & mask);
+            if (n + sizes[b] > due.length)
+                due = Arrays.copyOf(due, Math.max(due.length * 2, n + sizes[b]));
+            System.arraycopy(buckets[b], 0, due, n, sizes[b]);
+            n += sizes[b];
+            sizes[b] = 0;
+        }
+        tick = Math.max(tick, target);
+        size -= n;
+        return n;
+    }
+
+    /**
+     * Gets the addresses that came due in the last call to {@link #advance}. The
+     * array is reused by the next call.
+     *
+     * @return the addresses, of which the first as many as <code>advance</code>
+     *         returned are valid
+     */
+    public synchronized long[] getDue() {
+        return this.due;
+    }
+
+    /**
+     * Gets the number of addresses scheduled in this TimerWheel object.
+     *
+     * @return the number of scheduled addresses
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+}
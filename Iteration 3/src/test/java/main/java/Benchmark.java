@@ -0,0 +1,89 @@
+package main.java;
+
+import java.util.Arrays;
+
+/**
+ * Benchmark is a class that times an operation over many rounds on a warmed-up
+ * JVM, for the benchmarks that compare a data structure or parser with the one
+ * it replaced.
+ * Every round runs the operation a fixed number of times and the median time
+ * per operation over the measured rounds is reported, so that a single round
+ * slowed by garbage collection or compilation does not skew the result. The
+ * value each round returns is kept so that the JIT cannot remove the work.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class Benchmark {
+    // the number of rounds run before measuring, so that compiled code is measured
+    static final int WARMUP_ROUNDS = Integer.getInteger("bench.warmup", 10);
+    // the number of rounds measured
+    static final int ROUNDS = Integer.getInteger("bench.rounds", 10);
+
+    // collects the values returned by the rounds so that their work is not removed
+    private static long sink = 0;
+
+    /**
+     * Operation is the work timed by a Benchmark.
+     */
+    public interface Operation {
+        /**
+         * Runs the operation a number of times.
+         *
+         * @param iterations the number of times to run the operation
+         * @return any value computed by the operation
+         */
+        long run(int iterations);
+    }
+
+    /**
+     * Times an operation and prints the median time per operation.
+     *
+     * @param name       the name printed with the result
+     * @param iterations the number of times the operation is run in each round
+     * @param op         the Operation to time
+     * @return the median time per operation in nanoseconds
+     */
+    static double time(String name, int iterations, Operation op) {
+        for (int a = 0; a < WARMUP_ROUNDS; a++) {
+            sink += op.run(iterations);
+        }
+        double[] perOp = new double[ROUNDS];
+        for (int a = 0; a < ROUNDS; a++) {
+            long start = System.nanoTime();
+            sink += op.run(iterations);
+            perOp[a] = (System.nanoTime() - start) / (double) iterations;
+        }
+        Arrays.sort(perOp);
+        double median = perOp[ROUNDS / 2];
+        System.out.printf("%-40s %10.1f ns/op%n", name, median);
+        return median;
+    }
+
+    /**
+     * Gets the number of bytes of heap in use after a garbage collection.
+     *
+     * @return the bytes of heap in use
+     */
+    static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // a collection may not free everything at once, so the least of a few is kept
+        for (int a = 0; a < 4; a++) {
+            System.gc();
+            used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Gets the values returned by all rounds so far, so that a benchmark can
+     * print it and keep the work it measured.
+     *
+     * @return the sum of the values returned by all rounds
+     */
+    static long getSink() {
+        return sink;
+    }
+}
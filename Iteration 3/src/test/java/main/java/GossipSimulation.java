@@ -0,0 +1,331 @@
+package main.java;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * GossipSimulation is a class that compares how long the all-to-all peer
+ * broadcast and the push-pull gossip of a Peer object take to spread the full
+ * list of peers through a network, without opening any sockets.
+ * Every simulated peer starts out knowing itself and a few random peers, as if
+ * it had been given a partial list by the registry, and no messages are lost.
+ * A peer learns both the peers it is sent and the peer that sent them.
+ * The broadcast sends one known peer to every known peer and then waits, as
+ * <code>Peer.broadcastPeers</code> does; gossip runs one round per wait and
+ * exchanges the peers learned since the last exchange with each neighbour, as
+ * <code>Peer.gossipPeers</code> does.
+ * A second simulation adds timeouts: every peer starts out knowing every other
+ * peer, keeps the round it last heard of each of them, and moves a peer it has
+ * not heard of for <code>TIMEOUT_ROUNDS</code> to its dead peers. Some peers are
+ * stopped part way through, and the simulation reports how many live peers
+ * each peer has lost by the end and how many rounds it took until no peer kept
+ * a stopped peer alive, with and without gossiping the age of each peer.
+ * Run it with <code>java main.java.GossipSimulation [fanout]</code> after
+ * compiling the main and test sources together.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class GossipSimulation {
+    // the number of seconds between broadcasts and between gossip rounds
+    private static final int SECONDS = 6;
+    // the number of peers each peer is given by the registry
+    private static final int INITIAL_PEERS = 3;
+    // the most rounds simulated before giving up
+    private static final int MAX_ROUNDS = 100000;
+    // the rounds a peer is kept after it was last heard of, as the default peer.gossiptimeout allows
+    private static final int TIMEOUT_ROUNDS = 10;
+    // one in this many peers is stopped in the simulation with timeouts
+    private static final int STOPPED_FRACTION = 10;
+
+    private final int n;
+    private final Random random;
+    private final BitSet[] known;
+    private final int[][] lists;
+    private final int[] sizes;
+    // how many entries of each peer's list were last sent to each neighbour
+    private final int[][] synced;
+    // the index of the next peer each peer broadcasts
+    private final int[] cursor;
+    private long complete = 0;
+    private long datagrams = 0;
+
+    /**
+     * Class constructor that specifies the number of peers and the seed of the
+     * random network.
+     *
+     * @param n    the number of peers
+     * @param seed the seed used to pick the initial peers and gossip targets
+     */
+    GossipSimulation(int n, long seed) {
+        this.n = n;
+        this.random = new Random(seed);
+        this.known = new BitSet[n];
+        this.lists = new int[n][];
+        this.sizes = new int[n];
+        this.synced = new int[n][];
+        this.cursor = new int[n];
+        for (int i = 0; i < n; i++) {
+            known[i] = new BitSet(n);
+            lists[i] = new int[8];
+            learn(i, i);
+        }
+        for (int i = 0; i < n; i++) {
+            for (int a = 0; a < INITIAL_PEERS; a++) {
+                learn(i, random.nextInt(n));
+            }
+        }
+    }
+
+    /**
+     * Records that a peer learned about another peer.
+     *
+     * @param peer  the peer that learned
+     * @param entry the peer it learned about
+     */
+    private void learn(int peer, int entry) {
+        if (known[peer].get(entry))
+            return;
+        known[peer].set(entry);
+        if (sizes[peer] == lists[peer].length)
+            lists[peer] = Arrays.copyOf(lists[peer], sizes[peer] * 2);
+        lists[peer][sizes[peer]++] = entry;
+        if (sizes[peer] == n)
+            complete++;
+    }
+
+    /**
+     * Checks if every peer knows every other peer.
+     *
+     * @return <code>true</code> if the full list of peers has spread
+     */
+    private boolean converged() {
+        return complete == n;
+    }
+
+    /**
+     * Runs the all-to-all broadcast until every peer knows every other peer, or
+     * for a fixed number of steps.
+     * Each step every peer sends its next known peer to all of its known peers.
+     *
+     * @param limit the most steps to run
+     * @return the number of steps taken
+     */
+    int broadcast(int limit) {
+        int steps = 0;
+        while (!converged() && steps < limit) {
+            for (int p = 0; p < n; p++) {
+                int i = lists[p][cursor[p]];
+                cursor[p] = (cursor[p] + 1) % sizes[p];
+                int receivers = sizes[p];
+                for (int b = 0; b < receivers; b++) {
+                    int j = lists[p][b];
+                    learn(j, i);
+                    learn(j, p);
+                }
+                datagrams += receivers;
+            }
+            steps++;
+        }
+        return steps;
+    }
+
+    /**
+     * Runs push-pull gossip until every peer knows every other peer, or for a
+     * fixed number of rounds.
+     *
+     * @param fanout the number of random peers each peer contacts a round
+     * @param limit  the most rounds to run
+     * @return the number of rounds taken
+     */
+    int gossip(int fanout, int limit) {
+        int rounds = 0;
+        while (!converged() && rounds < limit) {
+            for (int p = 0; p < n; p++) {
+                for (int a = 0; a < fanout; a++) {
+                    int t = lists[p][random.nextInt(sizes[p])];
+                    if (t == p)
+                        continue;
+                    // push p's changes to t, then t answers the pull with its own
+                    sync(p, t);
+                    learn(t, p);
+                    sync(t, p);
+                    learn(p, t);
+                    datagrams++;
+                }
+            }
+            rounds++;
+        }
+        return rounds;
+    }
+
+    /**
+     * Sends a neighbour the peers a peer learned since it last sent to that
+     * neighbour. A peer's list only grows, so its length is its version.
+     *
+     * @param from the peer sending its changes
+     * @param to   the neighbour receiving them
+     */
+    private void sync(int from, int to) {
+        if (synced[from] == null)
+            synced[from] = new int[n];
+        int end = sizes[from];
+        for (int b = synced[from][to]; b < end; b++) {
+            learn(to, lists[from][b]);
+        }
+        datagrams += end - synced[from][to];
+        synced[from][to] = end;
+    }
+
+    /**
+     * Runs push-pull gossip with timeouts for <code>4 * TIMEOUT_ROUNDS</code>
+     * rounds, stopping one in <code>STOPPED_FRACTION</code> peers halfway. A
+     * stopped peer sends nothing and loses what it is sent. Each exchange lets
+     * both peers hear from each other. With ages, it also carries the round each
+     * side last heard of every live peer it knows, as a full sync of
+     * <code>Peer.pushPeers</code> does, and the receiver keeps the later round,
+     * taking a dead peer back if it was heard of since it died. Without ages, a
+     * peer every peer already knows is only heard of when it sends something
+     * itself.
+     *
+     * @param n      the number of peers
+     * @param fanout the number of random live peers each peer contacts a round
+     * @param aged   <code>true</code> if the age of each peer is gossiped
+     * @param seed   the seed used to pick gossip targets
+     * @return the average number of live peers each live peer considers dead at
+     *         the end, and the number of rounds after stopping until no live
+     *         peer considered a stopped peer alive, or <code>-1</code> if that
+     *         did not happen
+     */
+    static double[] expire(int n, int fanout, boolean aged, long seed) {
+        Random random = new Random(seed);
+        int[][] heard = new int[n][n];
+        BitSet[] dead = new BitSet[n];
+        for (int p = 0; p < n; p++) {
+            dead[p] = new BitSet(n);
+        }
+        int rounds = 4 * TIMEOUT_ROUNDS;
+        int stopAt = rounds / 2;
+        int forgotten = -1;
+        for (int round = 1; round <= rounds; round++) {
+            for (int p = 0; p < n; p++) {
+                if (round > stopAt && p % STOPPED_FRACTION == 0)
+                    continue;
+                for (int a = 0; a < fanout; a++) {
+                    int t = random.nextInt(n);
+                    if (t == p || dead[p].get(t))
+                        continue;
+                    if (round > stopAt && t % STOPPED_FRACTION == 0)
+                        continue;
+                    exchange(heard, dead, p, t, round, aged);
+                    exchange(heard, dead, t, p, round, aged);
+                }
+            }
+            boolean remembered = false;
+            for (int p = 0; p < n; p++) {
+                for (int q = 0; q < n; q++) {
+                    if (!dead[p].get(q) && heard[p][q] < round - TIMEOUT_ROUNDS)
+                        dead[p].set(q);
+                }
+                if (p % STOPPED_FRACTION == 0)
+                    continue;
+                for (int q = 0; q < n && !remembered; q += STOPPED_FRACTION) {
+                    remembered = !dead[p].get(q);
+                }
+            }
+            if (round > stopAt && forgotten < 0 && !remembered)
+                forgotten = round - stopAt;
+        }
+        long lost = 0;
+        for (int p = 0; p < n; p++) {
+            if (p % STOPPED_FRACTION == 0)
+                continue;
+            for (int q = 0; q < n; q++) {
+                if (q != p && q % STOPPED_FRACTION != 0 && dead[p].get(q))
+                    lost++;
+            }
+        }
+        int live = n - (n + STOPPED_FRACTION - 1) / STOPPED_FRACTION;
+        return new double[] { (double) lost / live, forgotten };
+    }
+
+    /**
+     * Delivers one message of an exchange in the simulation with timeouts.
+     *
+     * @param heard the round each peer last heard of each other peer
+     * @param dead  the dead peers of each peer
+     * @param from  the peer sending
+     * @param to    the peer receiving
+     * @param round the current round
+     * @param aged  <code>true</code> if the age of each peer is gossiped
+     */
+    private static void exchange(int[][] heard, BitSet[] dead, int from, int to, int round, boolean aged) {
+        // a peer always has just heard of itself
+        heard[from][from] = round;
+        heard[to][from] = round;
+        dead[to].clear(from);
+        if (!aged)
+            return;
+        for (int q = 0; q < heard.length; q++) {
+            if (!dead[from].get(q) && heard[from][q] > heard[to][q]) {
+                heard[to][q] = heard[from][q];
+                dead[to].clear(q);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of datagrams sent so far.
+     *
+     * @return the number of datagrams sent
+     */
+    long getDatagrams() {
+        return this.datagrams;
+    }
+
+    public static void main(String[] args) {
+        int fanout = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+
+        // datagrams per peer per round are measured once every pair of peers has
+        // exchanged once, which takes too long to simulate for the largest network
+        System.out.println("peers  mode       rounds  seconds  datagrams  steady/peer/round");
+        for (int n : new int[] { 50, 500, 5000 }) {
+            GossipSimulation all = new GossipSimulation(n, n);
+            int steps = all.broadcast(MAX_ROUNDS);
+            long sent = all.getDatagrams();
+            // every peer already knows every other peer, so the broadcast is steady
+            all.complete = 0;
+            all.broadcast(10);
+            String perPeer = String.format("%.1f", (all.getDatagrams() - sent) / (10.0 * n));
+            System.out.printf("%5d  broadcast  %6d  %7d  %9d  %17s%n", n, steps, steps * SECONDS, sent,
+                    perPeer);
+
+            GossipSimulation gossip = new GossipSimulation(n, n);
+            int rounds = gossip.gossip(fanout, MAX_ROUNDS);
+            long datagrams = gossip.getDatagrams();
+            String steady = "-";
+            if (n <= 500) {
+                gossip.complete = 0;
+                gossip.gossip(fanout, 4 * n);
+                long warm = gossip.getDatagrams();
+                gossip.gossip(fanout, 10);
+                steady = String.format("%.1f", (gossip.getDatagrams() - warm) / (10.0 * n));
+            }
+            System.out.printf("%5d  gossip     %6d  %7d  %9d  %17s%n", n, rounds, rounds * SECONDS, datagrams,
+                    steady);
+        }
+
+        // every peer keeps a round for every other peer, which is too much to simulate for the largest network
+        System.out.println();
+        System.out.println("peers  ages  lost/peer  rounds to forget stopped");
+        for (int n : new int[] { 50, 500 }) {
+            for (boolean aged : new boolean[] { false, true }) {
+                double[] result = expire(n, fanout, aged, n);
+                System.out.printf("%5d  %4s  %9.1f  %24s%n", n, aged ? "yes" : "no", result[0],
+                        result[1] < 0 ? "never" : String.valueOf((int) result[1]));
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package main.java;
+
+/**
+ * MessageViewBenchmark is a class that compares parsing peer and snip messages
+ * with a MessageView against the String based parser it replaced, which
+ * validated the IP of a peer message with <code>String.matches</code>, split
+ * the content on every use and rebuilt the content of a snippet word by word.
+ * Run it with <code>java main.java.MessageViewBenchmark</code> after compiling
+ * the main and test sources together.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class MessageViewBenchmark {
+    // the number of messages parsed in each round
+    static final int ITERATIONS = 200000;
+    // the number of words in the snippet of a long snip message
+    static final int SNIPPET_WORDS = 100;
+
+    /**
+     * Parses peer and snip messages both ways and prints the time per message.
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        byte[][] peers = new byte[1000][];
+        for (int a = 0; a < peers.length; a++) {
+            peers[a] = ("peer192.168." + (a / 250) + "." + (a % 250 + 1) + ":" + (5000 + a)).getBytes();
+        }
+        StringBuilder sb = new StringBuilder("snip42");
+        for (int a = 0; a < SNIPPET_WORDS; a++) {
+            sb.append(" word").append(a);
+        }
+        byte[] shortSnip = "snip42 hello world".getBytes();
+        byte[] longSnip = sb.toString().getBytes();
+
+        MessageView view = new MessageView();
+        Benchmark.time("peer, String parser", ITERATIONS, n -> {
+            long sum = 0;
+            for (int a = 0; a < n; a++) {
+                byte[] m = peers[a % peers.length];
+                String[] parsed = legacyProcessMessage(new String(m, 0, m.length));
+                sum += legacyPeerPort(parsed[1]);
+            }
+            return sum;
+        });
+        Benchmark.time("peer, MessageView", ITERATIONS, n -> {
+            long sum = 0;
+            for (int a = 0; a < n; a++) {
+                byte[] m = peers[a % peers.length];
+                if (view.parse(m, 0, m.length))
+                    sum += view.getAddress();
+            }
+            return sum;
+        });
+        timeSnip("snip of 2 words", shortSnip, view);
+        timeSnip("snip of " + SNIPPET_WORDS + " words", longSnip, view);
+        System.out.println("(" + Benchmark.getSink() + ")");
+    }
+
+    /**
+     * Times parsing one snip message both ways, including decoding its content.
+     *
+     * @param name the name printed with the results
+     * @param m    the snip message
+     * @param view the MessageView to parse with
+     */
+    private static void timeSnip(String name, byte[] m, MessageView view) {
+        Benchmark.time(name + ", String parser", ITERATIONS, n -> {
+            long sum = 0;
+            for (int a = 0; a < n; a++) {
+                String[] parsed = legacyProcessMessage(new String(m, 0, m.length));
+                sum += legacyProcessSnippet(parsed[1]).length();
+            }
+            return sum;
+        });
+        Benchmark.time(name + ", MessageView", ITERATIONS, n -> {
+            long sum = 0;
+            for (int a = 0; a < n; a++) {
+                if (view.parse(m, 0, m.length))
+                    sum += view.getTimestamp() + view.getContent().length();
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * Splits a message into its type and content and validates a peer message,
+     * as MessageHandler did before MessageView.
+     *
+     * @param msg the message
+     * @return the type and the content of the message
+     */
+    private static String[] legacyProcessMessage(String msg) {
+        String[] processedMessage;
+        try {
+            msg = msg.trim();
+            String msgType = msg.substring(0, 4).toLowerCase();
+            String msgContent = msg.substring(4).trim();
+
+            if (msgType.equals("peer")) {
+                String ip = msgContent.split(":")[0];
+                int port = Integer.parseInt(msgContent.split(":")[1]);
+                if (port < 0 || port > 65535)
+                    throw new Exception();
+                if (!ip.matches(
+                        "(\\b25[0-5]|\\b2[0-4][0-9]|\\b[01]?[0-9][0-9]?)(\\.(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)){3}"))
+                    throw new Exception();
+            }
+
+            processedMessage = new String[] { msgType, msgContent };
+        } catch (Exception e) {
+            processedMessage = new String[] { "", "" };
+        }
+        return processedMessage;
+    }
+
+    /**
+     * Gets the Port of the content of a peer message, as MessageHandler did
+     * before MessageView once the message was validated.
+     *
+     * @param msgContent the content of the peer message
+     * @return the Port
+     */
+    private static int legacyPeerPort(String msgContent) {
+        String peerIP = msgContent.split(":")[0];
+        int peerPort = Integer.parseInt(msgContent.split(":")[1]);
+        return peerIP.length() + peerPort;
+    }
+
+    /**
+     * Gets the content of a snip message, as MessageHandler did before
+     * MessageView.
+     *
+     * @param snippet the content of the snip message
+     * @return the content of the snippet
+     */
+    private static String legacyProcessSnippet(String snippet) {
+        String[] splitSnippet = snippet.split(" ");
+        Integer.parseInt(splitSnippet[0]);
+        String content = "";
+        for (int i = 1; i < splitSnippet.length; i++) {
+            content += splitSnippet[i] + " ";
+        }
+        return content.strip();
+    }
+}
@@ -0,0 +1,72 @@
+package main.java;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+
+/**
+ * PeerAllocationTest is a class that checks that handling a peer message
+ * allocates nothing once the peers involved are known.
+ * It passes peer messages straight to a MessageHandler, without a socket, and
+ * measures the bytes allocated by the calling thread with the ThreadMXBean of
+ * the JVM. The test exits with a non-zero status unless a whole round of
+ * messages allocates no bytes.
+ * Run it with <code>java main.java.PeerAllocationTest</code> after compiling the
+ * main and test sources together.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class PeerAllocationTest {
+    // the number of distinct peers gossiped
+    static final int PEERS = 1000;
+    // the number of messages handled before measuring, so that every peer is known and compiled code is used
+    static final int WARMUP = 200000;
+    // the number of messages measured in a round
+    static final int MEASURED = 1000000;
+    // the most rounds measured
+    static final int ROUNDS = 3;
+
+    /**
+     * Handles peer messages and fails if handling them allocated any bytes.
+     *
+     * @param args unused
+     * @throws Exception if the sender address cannot be built
+     */
+    public static void main(String[] args) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        Peer p = new Peer();
+        MessageHandler handler = new MessageHandler(p);
+        InetAddress sender = InetAddress.getByName("10.0.0.1");
+        byte[][] messages = new byte[PEERS][];
+        for (int a = 0; a < PEERS; a++) {
+            messages[a] = ("peer10.1." + (a / 250) + "." + (a % 250 + 1) + ":" + (5000 + a)).getBytes();
+        }
+
+        for (int a = 0; a < WARMUP; a++) {
+            byte[] m = messages[a % PEERS];
+            handler.handle(m, 0, m.length, sender, 6000);
+        }
+
+        // the JIT may still replace code early on, so a few measured rounds are allowed to settle
+        for (int round = 1; round <= ROUNDS; round++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int a = 0; a < MEASURED; a++) {
+                byte[] m = messages[a % PEERS];
+                handler.handle(m, 0, m.length, sender, 6000);
+            }
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+            System.out.println("Round " + round + ": allocated " + allocated + " bytes for " + MEASURED
+                    + " peer messages");
+            if (allocated == 0) {
+                System.out.println("PASSED");
+                System.exit(0);
+            }
+        }
+        System.out.println("FAILED: handling a peer message allocates");
+        System.exit(1);
+    }
+}
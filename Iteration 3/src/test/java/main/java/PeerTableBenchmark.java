@@ -0,0 +1,130 @@
+package main.java;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PeerTableBenchmark is a class that compares a PeerTable with the
+ * <code>ConcurrentHashMap&lt;PeerLocation, Date&gt;</code> it replaced, by the
+ * heap each holds for the same peers and by the time taken to record that a
+ * known peer was heard from and to count the live peers.
+ * The map is used as Peer used it before PeerTable: a peer is touched by putting
+ * a new Date, and a peer is live if <code>isAlive</code>, which built a Calendar
+ * for every check, says so. The PeerLocations of the map are built before
+ * timing, which favours the map.
+ * Run it with <code>java main.java.PeerTableBenchmark</code> after compiling the
+ * main and test sources together.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class PeerTableBenchmark {
+    // the numbers of peers compared
+    static final int[] SIZES = { 10000, 100000 };
+    // the number of peers touched in each round
+    static final int ITERATIONS = 1000000;
+    // how long a peer stays live without being heard from, as in the Peer class before PeerTable
+    static final int ALIVE_SECONDS = 10;
+
+    /**
+     * Compares both at each size and prints the heap and the time per operation.
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        for (int size : SIZES) {
+            System.out.println(size + " peers");
+            compare(size);
+        }
+        System.out.println("(" + Benchmark.getSink() + ")");
+    }
+
+    /**
+     * Compares both for one number of peers.
+     *
+     * @param size the number of peers
+     */
+    private static void compare(int size) {
+        long[] addresses = new long[size];
+        for (int a = 0; a < size; a++) {
+            addresses[a] = MessageView.pack(0x0A000000 | (a + 1), 5000 + a % 1000);
+        }
+
+        long before = Benchmark.usedHeap();
+        ConcurrentHashMap<PeerLocation, Date> map = new ConcurrentHashMap<PeerLocation, Date>();
+        PeerLocation[] keys = new PeerLocation[size];
+        for (int a = 0; a < size; a++) {
+            keys[a] = new PeerLocation(MessageView.formatIP(MessageView.ipOf(addresses[a])),
+                    MessageView.portOf(addresses[a]));
+            map.put(keys[a], new Date());
+        }
+        long mapBytes = Benchmark.usedHeap() - before;
+
+        before = Benchmark.usedHeap();
+        PeerTable table = new PeerTable(64);
+        long now = System.currentTimeMillis();
+        for (int a = 0; a < size; a++) {
+            table.touch(addresses[a], now);
+        }
+        long tableBytes = Benchmark.usedHeap() - before;
+
+        System.out.printf("%-40s %10d bytes (%d a peer)%n", "heap, ConcurrentHashMap", mapBytes, mapBytes / size);
+        System.out.printf("%-40s %10d bytes (%d a peer)%n", "heap, PeerTable", tableBytes, tableBytes / size);
+
+        Benchmark.time("touch, ConcurrentHashMap", ITERATIONS, n -> {
+            for (int a = 0; a < n; a++) {
+                map.put(keys[a % size], new Date());
+            }
+            return map.size();
+        });
+        Benchmark.time("touch, PeerTable", ITERATIONS, n -> {
+            long t = System.currentTimeMillis();
+            for (int a = 0; a < n; a++) {
+                table.touch(addresses[a % size], t);
+            }
+            return table.size();
+        });
+
+        // a scan visits every peer, so fewer scans make up a round
+        int scans = Math.max(1, ITERATIONS / size);
+        Benchmark.time("live scan per peer, ConcurrentHashMap", scans * size, n -> {
+            long live = 0;
+            for (int a = 0; a < scans; a++) {
+                for (Date d : map.values()) {
+                    if (isAlive(d, ALIVE_SECONDS))
+                        live++;
+                }
+            }
+            return live;
+        });
+        long[] live = new long[1];
+        Benchmark.time("live scan per peer, PeerTable", scans * size, n -> {
+            live[0] = 0;
+            for (int a = 0; a < scans; a++) {
+                long since = System.currentTimeMillis() - ALIVE_SECONDS * 1000;
+                table.forEach((address, lastSeen) -> {
+                    if (lastSeen >= since)
+                        live[0]++;
+                });
+            }
+            return live[0];
+        });
+    }
+
+    /**
+     * Checks if a Date is not older than a number of seconds, as Peer did before
+     * PeerTable.
+     *
+     * @param d       the Date to check
+     * @param seconds the number of seconds
+     * @return <code>true</code> if the Date is not older than the number of
+     *         seconds
+     */
+    private static boolean isAlive(Date d, int seconds) {
+        Date current = Calendar.getInstance().getTime();
+        current.setTime(current.getTime() - (seconds * 1000));
+        return !d.before(current);
+    }
+}
@@ -0,0 +1,85 @@
+package main.java;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * ShardedStartTest is a class that checks that a Peer object receiving on
+ * sharded sockets keeps running its periodic rounds after it has started.
+ * It starts a Peer with <code>peer.receivers</code> set to two against a stand-in
+ * registry that closes every connection straight away, waits until the Peer
+ * has been running for a while, and then types a snippet on its standard
+ * input, which only a round polling the input can pick up. The test exits with
+ * a non-zero status unless the snippet is sent and the Peer then stops.
+ * Run it with <code>java main.java.ShardedStartTest</code> after compiling the
+ * main and test sources together.
+ *
+ * @author Rohan Amjad UCID: 30062188
+ * @version 1.0
+ * @since 1.3
+ */
+public class ShardedStartTest {
+    // how long the Peer runs before the snippet is typed, several input polls
+    static final long STARTUP_MILLIS = 2000;
+    // how long the snippet is given to be picked up, and the Peer to stop
+    static final long WAIT_MILLIS = 10000;
+
+    public static void main(String[] args) throws Exception {
+        // set before the Peer class is loaded, since it reads its properties once
+        System.setProperty("peer.receivers", "2");
+
+        ServerSocket registry = new ServerSocket(0);
+        Thread registrar = new Thread(() -> {
+            // the Peer connects once when it starts and once when it stops
+            for (int a = 0; a < 2; a++) {
+                try (Socket s = registry.accept()) {
+                    BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream()));
+                    out.write("close\n");
+                    out.flush();
+                    s.getInputStream().read();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "registry");
+        registrar.setDaemon(true);
+        registrar.start();
+
+        PipedOutputStream typed = new PipedOutputStream();
+        System.setIn(new PipedInputStream(typed));
+
+        Peer p = new Peer();
+        Thread running = new Thread(() -> p.start("127.0.0.1", registry.getLocalPort()), "peer");
+        running.setDaemon(true);
+        running.start();
+
+        Thread.sleep(STARTUP_MILLIS);
+        typed.write("a round ran\n".getBytes());
+        typed.flush();
+
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (p.getTimestamp() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(50);
+        boolean sent = p.getTimestamp() > 0;
+
+        p.setLingerDeadline(System.currentTimeMillis());
+        p.stop();
+        running.join(WAIT_MILLIS);
+        registry.close();
+
+        if (!sent) {
+            System.out.println("FAILED: no round ran after the Peer started");
+            System.exit(1);
+        }
+        if (running.isAlive()) {
+            System.out.println("FAILED: the Peer did not stop");
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+        System.exit(0);
+    }
+}